@@ -0,0 +1,117 @@
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 在 DML 格式的数据目录（DML2.xml、allTruePos.txt/bin、startEnd.txt、allTruePosDiff.txt）上评估参数。
+// 数据目录用 -p dataDir=... 指定，必须以 / 结尾；[start, end) 超出数据的帧数时截断。
+// syntheticAgents > 0 时忽略 dataDir，先用 SceneGenerator 在临时目录中生成该人数的场景。
+// RDScene.OriSim 是全局的，每组参数都在单独的 JVM 中运行（fork >= 1）
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class RDSceneBench {
+    @Param("data/DML2/")
+    public String dataDir;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    // 每次评估的候选参数个数
+    @Param("8")
+    public int numCandidates;
+
+    @Param("0")
+    public int start;
+
+    @Param("200")
+    public int end;
+
+    @Param("0")
+    public int syntheticAgents;
+
+    private RDScene scene;
+    private double[][] paras;
+
+    @Setup
+    public void setup() throws IOException {
+        if (syntheticAgents > 0) {
+            final SceneGenerator gen = new SceneGenerator();
+            gen.setNumAgents(syntheticAgents);
+            gen.setNumObstacles(syntheticAgents / 50);
+            gen.setNumFrames(end + 1);
+            gen.generate();
+            dataDir = Files.createTempDirectory("rdscene-bench") + File.separator;
+            gen.write(dataDir, true, false);
+        }
+
+        if (!new File(dataDir, "allTruePosDiff.txt").isFile())
+            throw new IllegalStateException("no DML data in " + dataDir + ", pass -p dataDir=<dir>/");
+
+        scene = new RDScene(Integer.MAX_VALUE, dataDir, "", numThreads);
+        scene.setupScene();
+        if (scene.getNumAgents() == 0)
+            throw new IllegalStateException("failed to load scene from " + dataDir);
+        end = Math.min(end, scene.getTotalFrames() - 1);
+
+        // 与标定时相同的参数范围内随机取值
+        final double[] base = scene.getAllPara();
+        final Random random = new Random(42);
+        paras = new double[numCandidates][];
+        for (int k = 0; k < numCandidates; k++) {
+            final double[] p = base.clone();
+            for (int j = 0; j < p.length / 6; j++) {
+                p[j * 6] = 0.15 + 0.2 * random.nextDouble();
+                p[j * 6 + 1] = 2 + 18 * random.nextDouble();
+                p[j * 6 + 2] = 3 + random.nextInt(10);
+                p[j * 6 + 3] = 0.5 + 2 * random.nextDouble();
+                p[j * 6 + 4] = 0.3 + random.nextDouble();
+                p[j * 6 + 5] = 1.0 + 0.6 * random.nextDouble();
+            }
+            paras[k] = p;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scene.close();
+
+        if (syntheticAgents > 0) {
+            final File[] files = new File(dataDir).listFiles();
+            if (files != null)
+                for (File f : files)
+                    Files.delete(f.toPath());
+            Files.delete(new File(dataDir).toPath());
+        }
+    }
+
+    // 单次模拟（Simulator.doStep），默认参数
+    @Benchmark
+    public double defFeval() {
+        return scene.defFeval(start, end);
+    }
+
+    @Benchmark
+    public double[] evalPartialP() {
+        return scene.evalPartialP(paras, start, end);
+    }
+}
@@ -0,0 +1,32 @@
+package bench;
+
+import app.RDScene;
+import app.SceneGenerator;
+import rvo.Simulator;
+import utilPac.SparseMatrix;
+
+// 基准用的合成场景，由 SceneGenerator 生成后直接载入 Simulator：所有人在第 0 帧随机分布在场地内，
+// 一半向左、一半向右穿过场地，平均每 100 平方米一个矩形障碍物
+public final class Scenes {
+    private Scenes() {
+    }
+
+    // density 为每平方米的人数；真实轨迹有 numFrames 帧
+    public static Simulator crossing(int numAgents, double density, int numFrames, long seed) {
+        final SceneGenerator gen = new SceneGenerator();
+        gen.setNumAgents(numAgents);
+        gen.setDensity(density);
+        gen.setNumObstacles((int) (numAgents / density / 100));
+        gen.setNumFrames(numFrames);
+        gen.setSeed(seed);
+        gen.generate();
+
+        final Simulator sim = new Simulator();
+        gen.populate(sim);
+
+        // doStep 从 RDScene 读取位置误差矩阵，Agent.calcDiff 不使用其中的值，全部为 0 即可
+        RDScene.allTruePosDiff = SparseMatrix.zeros(numFrames, numAgents);
+
+        return sim;
+    }
+}
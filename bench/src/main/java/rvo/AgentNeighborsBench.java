@@ -0,0 +1,28 @@
+package rvo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+// 阶段3 的近邻 agent 查询：所有活跃 agent 各查询一次
+public class AgentNeighborsBench extends EngineBench {
+    @Param({"KD_TREE", "GRID"})
+    public String index;
+
+    @Override
+    void prepare() {
+        sim.setNeighborIndex(NeighborIndex.Type.valueOf(index));
+        sim.neighborIndex.build();
+    }
+
+    @Benchmark
+    public int computeAgentNeighbors() {
+        int total = 0;
+        for (Agent a : sim.agents) {
+            final double neighborDistance = a.store.neighborDistance(a.slot);
+            a.agentNeighbors.reset(a.store.maxNeighbors(a.slot));
+            sim.neighborIndex.computeAgentNeighbors(a, neighborDistance * neighborDistance);
+            total += a.agentNeighbors.size;
+        }
+        return total;
+    }
+}
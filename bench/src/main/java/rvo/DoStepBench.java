@@ -0,0 +1,33 @@
+package rvo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+// 完整的模拟：从真实位置出发模拟 STEP_FRAMES 帧，parallelism > 1 时帧内并行
+public class DoStepBench extends EngineBench {
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Override
+    void prepare() {
+        sim.setParallelism(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sim.setParallelism(1);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        sim.resetTrue(WARMUP_FRAMES);
+    }
+
+    @Benchmark
+    public double doStep() {
+        return sim.doStep(WARMUP_FRAMES, WARMUP_FRAMES + STEP_FRAMES);
+    }
+}
@@ -0,0 +1,50 @@
+package rvo;
+
+import bench.Scenes;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 引擎基准的公共状态：按人数和密度生成合成场景，先模拟 WARMUP_FRAMES 帧，
+// 使速度和近邻分布接近稳态。放在 rvo 包中以便直接调用包内的各个阶段
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public abstract class EngineBench {
+    static final int WARMUP_FRAMES = 20;
+    static final int STEP_FRAMES = 10;
+    static final long SEED = 42;
+
+    @Param({"500", "2000", "8000"})
+    public int numAgents;
+
+    // 每平方米的人数
+    @Param({"0.5", "2.0"})
+    public double density;
+
+    Simulator sim;
+
+    @Setup
+    public void setupScene() {
+        sim = Scenes.crossing(numAgents, density, WARMUP_FRAMES + STEP_FRAMES + 1, SEED);
+        sim.resetTrue(0);
+        sim.doStep(0, WARMUP_FRAMES);
+        prepare();
+    }
+
+    // 场景就绪后各基准的准备工作。JMH 不保证父类与子类 @Setup 的先后，因此由这里统一调用
+    void prepare() {
+    }
+}
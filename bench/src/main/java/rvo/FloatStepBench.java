@@ -0,0 +1,36 @@
+package rvo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+// 与 DoStepBench 相同的模拟，使用单精度引擎 FloatSimulator
+public class FloatStepBench extends EngineBench {
+    @Param({"1", "4"})
+    public int parallelism;
+
+    FloatSimulator floatSim;
+
+    @Override
+    void prepare() {
+        floatSim = new FloatSimulator(sim);
+        floatSim.setParallelism(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        floatSim.setParallelism(1);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        floatSim.resetTrue(WARMUP_FRAMES);
+    }
+
+    @Benchmark
+    public double doStep() {
+        return floatSim.doStep(WARMUP_FRAMES, WARMUP_FRAMES + STEP_FRAMES);
+    }
+}
@@ -0,0 +1,19 @@
+package rvo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+// 阶段2：agent kd 树的构建。fresh 为从头构建，incremental 为帧间复用已有的树（只重算包围盒）
+public class KdTreeBench extends EngineBench {
+    @Benchmark
+    public KdTree buildFresh() {
+        final KdTree tree = new KdTree(sim);
+        tree.build();
+        return tree;
+    }
+
+    @Benchmark
+    public KdTree buildIncremental() {
+        sim.kdTree.build();
+        return sim.kdTree;
+    }
+}
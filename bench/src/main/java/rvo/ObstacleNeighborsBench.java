@@ -0,0 +1,43 @@
+package rvo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+// 阶段3 的近邻障碍物查询：所有活跃 agent 各查询一次，grid 为 true 时使用预计算的网格
+public class ObstacleNeighborsBench extends EngineBench {
+    @Param({"false", "true"})
+    public boolean grid;
+
+    private int[] stack;
+
+    @Override
+    void prepare() {
+        double maxRange = 0;
+        for (Agent a : sim.agents)
+            maxRange = Math.max(maxRange, range(a));
+        sim.setObstacleGrid(grid ? maxRange : 0);
+        stack = new int[sim.obstacleTree.stackSize()];
+    }
+
+    @Benchmark
+    public int computeObstacleNeighbors() {
+        int total = 0;
+        for (Agent a : sim.agents) {
+            final double range = range(a);
+            final double x = a.store.posX[a.slot];
+            final double y = a.store.posY[a.slot];
+            a.obstacleNeighbors.clear();
+
+            if (sim.obstacleGrid != null)
+                sim.obstacleGrid.computeObstacleNeighbors(x, y, range * range, a.obstacleNeighbors);
+            else
+                sim.obstacleTree.computeObstacleNeighbors(x, y, range * range, a.obstacleNeighbors, stack);
+            total += a.obstacleNeighbors.size;
+        }
+        return total;
+    }
+
+    private static double range(Agent a) {
+        return a.store.timeHorizonObstacles(a.slot) * a.store.maxSpeed[a.slot] + a.store.radius(a.slot);
+    }
+}
@@ -0,0 +1,23 @@
+package rvo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+// 阶段3 的速度决策：近邻已经算好，所有活跃 agent 各构造 ORCA 约束并求解一次
+public class VelocityBench extends EngineBench {
+    @Override
+    void prepare() {
+        sim.neighborIndex.build();
+        for (Agent a : sim.agents)
+            a.computeNeighbors();
+    }
+
+    @Benchmark
+    public double computeNewVelocity() {
+        double sum = 0;
+        for (Agent a : sim.agents) {
+            a.computeNewVelocity(sim.solver);
+            sum += a.store.newVelX[a.slot];
+        }
+        return sum;
+    }
+}
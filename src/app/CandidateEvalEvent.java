@@ -0,0 +1,29 @@
+package app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// 一个候选参数评估的 JFR 事件，持续时间即该候选的评估耗时，只在 RDScene 打开了统计时创建和提交
+@Name("rvo.CandidateEval")
+@Label("Candidate Evaluation")
+@Category("CrowdSimulation")
+@StackTrace(false)
+class CandidateEvalEvent extends Event {
+    @Label("Candidate")
+    int candidate;
+
+    @Label("Start Frame")
+    int startFrame;
+
+    @Label("End Frame")
+    int endFrame;
+
+    @Label("Score")
+    double score;
+
+    // 开始时刻，供 StepMetrics 计时，不写入事件
+    transient long beginNanos;
+}
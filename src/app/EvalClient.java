@@ -0,0 +1,123 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+// EvalServer 的客户端，可直接在 Matlab 的 JVM 中使用，不需要载入场景。一个连接同一时间只能有一个请求
+public class EvalClient implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private final int numAgents;
+    private final int numPara;
+    private final int totalFrames;
+
+    public EvalClient(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress().getHostAddress(), port);
+    }
+
+    public EvalClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+        out.writeInt(EvalServer.OP_INFO);
+        out.flush();
+        checkStatus();
+        numAgents = in.readInt();
+        numPara = in.readInt();
+        totalFrames = in.readInt();
+    }
+
+    public int getNumAgents() { return numAgents; }
+    public int getTotalFrames() { return totalFrames; }
+    // 每个候选的参数个数
+    public int getParaLength() { return numAgents * numPara; }
+
+    public synchronized double[] getAllPara() throws IOException {
+        out.writeInt(EvalServer.OP_GET_PARA);
+        out.flush();
+        checkStatus();
+        return EvalServer.readDoubles(in, in.readInt());
+    }
+
+    public double[] evalPartialP(double[][] paras, int start, int end) throws IOException {
+        final int k = getParaLength();
+        final double[] flat = new double[paras.length * k];
+        for (int i = 0; i < paras.length; i++)
+            System.arraycopy(paras[i], 0, flat, i * k, k);
+        return evalPartialP(flat, paras.length, start, end);
+    }
+
+    // flat 按行存放 m 个候选，每行 getParaLength() 个参数，排列与 RDScene.getAllPara 相同
+    public double[] evalPartialP(double[] flat, int m, int start, int end) throws IOException {
+        return evalRows(flat, 0, m, start, end);
+    }
+
+    // 只评估 flat 中从第 fromRow 行开始的 m 行
+    public synchronized double[] evalRows(double[] flat, int fromRow, int m, int start, int end) throws IOException {
+        final int k = getParaLength();
+        if (fromRow < 0 || m < 0)
+            throw new IllegalArgumentException("invalid rows " + fromRow + " + " + m);
+        if ((long) m * k > EvalServer.MAX_DOUBLES)
+            throw new IllegalArgumentException(m + " candidates exceed the message limit of " + EvalServer.MAX_DOUBLES + " parameters");
+        if (flat.length < ((long) fromRow + m) * k)
+            throw new IllegalArgumentException("expected " + ((long) fromRow + m) * k + " parameters, got " + flat.length);
+
+        out.writeInt(EvalServer.OP_EVAL);
+        out.writeInt(start);
+        out.writeInt(end);
+        out.writeInt(m);
+        out.writeInt(k);
+        EvalServer.writeRaw(out, flat, fromRow * k, m * k);
+        out.flush();
+        checkStatus();
+        return EvalServer.readDoubles(in, in.readInt());
+    }
+
+    // 等待回复的超时，0 为不限；超时后抛出 SocketTimeoutException，连接不能再使用
+    public void setTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
+    public synchronized double[] fevalResetInterval(double[] para, int interval) throws IOException {
+        out.writeInt(EvalServer.OP_FEVAL_RESET);
+        out.writeInt(interval);
+        EvalServer.writeDoubles(out, para);
+        out.flush();
+        checkStatus();
+        return EvalServer.readDoubles(in, in.readInt());
+    }
+
+    private void checkStatus() throws IOException {
+        if (in.readInt() != EvalServer.STATUS_OK)
+            throw new RemoteException(in.readUTF());
+    }
+
+    // 服务端回复了 STATUS_ERROR：请求本身有误或评估失败，重发同一请求会得到同样的结果，连接仍可继续使用。
+    // 其他 IOException 表示连接或服务进程出了问题
+    public static class RemoteException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RemoteException(String message) {
+            super("EvalServer: " + message);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.writeInt(EvalServer.OP_CLOSE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 常驻的评估服务：启动时载入场景一次，之后通过本机 socket 为多个优化器客户端批量评估参数，
+// 省去每次会话的 JVM 启动、setupScene 和 JIT 预热。客户端见 EvalClient。
+// 用法：java app.EvalServer <dataDir> <端口，0 为任选> [线程数] [结束帧]
+//
+// 协议（DataOutputStream 的大端格式），每个请求为 int 操作码 + 参数，回复为 int 状态 + 内容：
+//   OP_INFO                                -> int 人数, int 每人参数个数, int 总帧数
+//   OP_GET_PARA                            -> int n, double[n]（getAllPara）
+//   OP_EVAL        int start, int end, int 候选数 m, int 每个候选的参数个数 k, double[m * k]
+//                                          -> int m, double[m]（evalPartialP，按行展开）
+//   OP_FEVAL_RESET int interval, int k, double[k]
+//                                          -> int n, double[n]（FevalResetInteval）
+//   OP_CLOSE                               -> 无回复，关闭连接
+// 状态为 STATUS_ERROR 时内容为 UTF 字符串的错误信息，连接仍可继续使用；请求中的长度为负或超过 MAX_DOUBLES 时直接断开连接。
+// RDScene 的场景是静态的，一个进程只服务一个场景。OP_EVAL 和 OP_GET_PARA 可并发；
+// OP_FEVAL_RESET 修改 OriSim，独占执行，期间 OP_EVAL 不会从 OriSim 复制出状态不完整的模拟器
+public class EvalServer implements AutoCloseable {
+    static final int OP_INFO = 1;
+    static final int OP_GET_PARA = 2;
+    static final int OP_EVAL = 3;
+    static final int OP_FEVAL_RESET = 4;
+    static final int OP_CLOSE = 5;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    // 一条消息中 double 个数的上限，保证字节数不超出 int
+    static final int MAX_DOUBLES = Integer.MAX_VALUE / 8;
+
+    private final RDScene scene;
+    private final ServerSocket server;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    // 读取 OriSim（包括从它复制模拟器）的请求持有读锁，修改 OriSim 的请求持有写锁
+    private final ReadWriteLock oriSimLock = new ReentrantReadWriteLock();
+
+    public EvalServer(RDScene scene, int port) throws IOException {
+        this.scene = scene;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // 用默认参数评估一次，使模拟器池和 JIT 就绪
+    public void warmUp(int start, int end) {
+        final double[][] paras = new double[1][];
+        paras[0] = scene.getAllPara();
+        scene.evalPartialP(paras, start, end);
+    }
+
+    // 阻塞，直到 close
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed())
+                    return;
+                throw e;
+            }
+
+            connections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+    }
+
+    private void handle(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+
+            while (true) {
+                final int op;
+                try {
+                    op = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (op == OP_CLOSE)
+                    return;
+
+                try {
+                    handle(op, in, out);
+                } catch (RuntimeException e) {
+                    // 请求已完整读入，回复错误后继续处理下一个请求
+                    out.writeInt(STATUS_ERROR);
+                    out.writeUTF(String.valueOf(e));
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private void handle(int op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case OP_INFO: {
+                out.writeInt(STATUS_OK);
+                out.writeInt(scene.getNumAgents());
+                out.writeInt(6);
+                out.writeInt(scene.getTotalFrames());
+                break;
+            }
+            case OP_GET_PARA: {
+                final double[] para;
+                oriSimLock.readLock().lock();
+                try {
+                    para = scene.getAllPara();
+                } finally {
+                    oriSimLock.readLock().unlock();
+                }
+                out.writeInt(STATUS_OK);
+                writeDoubles(out, para);
+                break;
+            }
+            case OP_EVAL: {
+                final int start = in.readInt();
+                final int end = in.readInt();
+                final int m = in.readInt();
+                final int k = in.readInt();
+                if (m < 0 || k < 0)
+                    throw new IOException("negative size " + m + " x " + k);
+                final double[] flat = readDoubles(in, (long) m * k);
+                if (k != scene.getNumAgents() * 6)
+                    throw new IllegalArgumentException("expected " + scene.getNumAgents() * 6 + " parameters per candidate, got " + k);
+
+                // 直接按行绑定，不拆成 double[][]；评估失败时异常回复给客户端
+                final double[] res;
+                oriSimLock.readLock().lock();
+                try {
+                    res = scene.evalPartialPOrThrow(flat, m, start, end);
+                } finally {
+                    oriSimLock.readLock().unlock();
+                }
+
+                out.writeInt(STATUS_OK);
+                writeDoubles(out, res);
+                break;
+            }
+            case OP_FEVAL_RESET: {
+                final int interval = in.readInt();
+                final double[] para = readDoubles(in, in.readInt());
+                final double[] res;
+                oriSimLock.writeLock().lock();
+                try {
+                    res = scene.FevalResetInteval(para, interval);
+                } finally {
+                    oriSimLock.writeLock().unlock();
+                }
+
+                out.writeInt(STATUS_OK);
+                writeDoubles(out, res);
+                break;
+            }
+            default:
+                throw new IOException("unknown op " + op);
+        }
+    }
+
+    // 批量读写 double，避免逐个 readDouble / writeDouble。
+    // 长度非法时抛出 IOException 断开连接，不能回复错误后继续：未读的数据会被当作后续请求解析
+    static double[] readDoubles(DataInputStream in, long n) throws IOException {
+        if (n < 0 || n > MAX_DOUBLES)
+            throw new IOException("invalid length " + n);
+        final byte[] bytes = new byte[(int) n * 8];
+        in.readFully(bytes);
+        final double[] res = new double[(int) n];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(res);
+        return res;
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] v) throws IOException {
+        out.writeInt(v.length);
+        writeRaw(out, v, 0, v.length);
+    }
+
+    static void writeRaw(DataOutputStream out, double[] v, int from, int n) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(n * 8);
+        bytes.asDoubleBuffer().put(v, from, n);
+        out.write(bytes.array());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: EvalServer <dataDir> <port> [numThreads] [edFrame]");
+            System.exit(1);
+        }
+
+        final String dataDir = args[0].endsWith(File.separator) ? args[0] : args[0] + File.separator;
+        final int port = Integer.parseInt(args[1]);
+        final int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        try (RDScene scene = new RDScene(args.length > 3 ? Integer.parseInt(args[3]) : 0, dataDir, "", numThreads)) {
+            scene.setupScene();
+
+            try (EvalServer server = new EvalServer(scene, port)) {
+                server.warmUp(0, Math.min(100, scene.getTotalFrames() - 1));
+                System.out.println("EvalServer listening on port " + server.getPort());
+                server.serve();
+            }
+        }
+    }
+}
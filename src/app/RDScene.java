@@ -5,17 +5,27 @@ import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import rvo.EvalResult;
+import rvo.FloatSimulator;
+import rvo.NeighborIndex;
 import rvo.Simulator;
+import rvo.StepMetrics;
 import rvo.Agent;
+import utilPac.SparseMatrix;
+import utilPac.TaskScope;
+import utilPac.Trajectory;
+import utilPac.TrajectoryFile;
 import utilPac.Util;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
+import java.nio.DoubleBuffer;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.DoubleSupplier;
 
-public class RDScene {
+public class RDScene implements AutoCloseable {
     int step = 0;
     int testStep = 0;
     int edFrame = 0;
@@ -25,13 +35,26 @@ public class RDScene {
     List<Agent> allAgents;
     public static final Simulator OriSim = new Simulator();
     public static String dataDir, sceneFile, groupFile;
-    public static List<List<Double>> allTruePosDiff;
+    public static SparseMatrix allTruePosDiff;
     List<Group> allGroups;
-    List<List<Vector2D>> allTruePos;
+    Trajectory allTruePos;
     boolean inited;
     double[][] mlabparas;
-    ExecutorService es;
-    ExecutorCompletionService service;
+    // 按候选逐个调度的 work-stealing 线程池
+    ForkJoinPool es;
+    // 供 evalPartialP 复用的 worker 模拟器，每个线程一个；OriSim 的配置改变后需要重建。
+    // 并发的评估调用会临时多建模拟器，归还时池已满的直接丢弃，池不超过线程数
+    private final Queue<Simulator> simPool;
+    // 单精度模式下 evalPartialP / evalPartialStructured 改用 FloatSimulator，误差容限见该类
+    private boolean singlePrecision = false;
+    private final Queue<FloatSimulator> floatSimPool;
+    // 结构化模式下同时进行模拟的任务数上限，模拟是计算密集的，不超过线程数
+    private final Semaphore simPermits;
+    // 分阶段统计，为 null 时关闭；OriSim 和池中的模拟器共享
+    private StepMetrics metrics = null;
+    // 最近一次完成的 evalPartialP / evalPartialStructured 中每个候选的耗时（毫秒），统计关闭时不记录。
+    // 每次调用写自己的数组，结束时整体发布，并发调用互不覆盖
+    private volatile double[] lastCandidateMillis = new double[0];
 
 
 
@@ -46,8 +69,10 @@ public class RDScene {
         RDScene.groupFile = groupFile;
 
         this.numThreads = numThreads;
-        this.es = Executors.newFixedThreadPool(numThreads);
-        this.service = new ExecutorCompletionService(this.es);
+        this.es = new ForkJoinPool(numThreads);
+        this.simPermits = new Semaphore(numThreads);
+        this.simPool = new ArrayBlockingQueue<>(numThreads);
+        this.floatSimPool = new ArrayBlockingQueue<>(numThreads);
     }
 
     public int getTestStep() {
@@ -55,15 +80,26 @@ public class RDScene {
     }
 
     public void setupScene() {
-        allTruePosDiff = Util.matFromFile(dataDir +"allTruePosDiff.txt");
+        try {
+            allTruePosDiff = SparseMatrix.fromFile(dataDir +"allTruePosDiff.txt");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
 
         OriSim.setTimeStep(0.1);
 
         // 设置真实数据
         if (groupFile.length() > 0)
             allGroups = Group.groupsFromFile(dataDir +groupFile);
-        allTruePos = Util.posFromFile(dataDir +"allTruePos.txt");
-        OriSim.setTruePosThenCalcVel(allTruePos);
+        // 有 allTruePos.bin 时直接内存映射，否则解析 allTruePos.txt（可用 TrajectoryFile 转换）
+        try {
+            allTruePos = TrajectoryFile.load(dataDir);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        OriSim.setTruePos(allTruePos);
 
         // 添加 agent（初始位置、设定目标）
         // 添加障碍物
@@ -126,6 +162,93 @@ public class RDScene {
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        resetSimPool();
+    }
+
+    // 丢弃旧的 worker 模拟器，按 OriSim 当前的配置为每个线程预先构建一个
+    private void resetSimPool() {
+        for (Simulator sim : simPool)
+            sim.shutdown();
+        simPool.clear();
+        for (FloatSimulator sim : floatSimPool)
+            sim.shutdown();
+        floatSimPool.clear();
+        for (int i = 0; i < numThreads; i++)
+            simPool.add(new Simulator(OriSim));
+    }
+
+    // 打开时 OriSim 和所有 worker 模拟器记录每帧各阶段的耗时和计数，并逐个记录候选的评估耗时
+    public void setMetricsEnabled(boolean enabled) {
+        metrics = enabled ? new StepMetrics() : null;
+        OriSim.setMetrics(metrics);
+        for (Simulator sim : simPool)
+            sim.setMetrics(metrics);
+    }
+
+    public StepMetrics getMetrics() {
+        return metrics;
+    }
+
+    public double[] getLastCandidateMillis() {
+        return lastCandidateMillis;
+    }
+
+    // 统计关闭时返回 null，不分配事件
+    private CandidateEvalEvent candidateBegin() {
+        if (metrics == null)
+            return null;
+        final CandidateEvalEvent event = new CandidateEvalEvent();
+        event.beginNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    // millis 为本次调用的逐候选耗时，调用开始时统计关闭则为 null
+    private void candidateEnd(CandidateEvalEvent event, double[] millis, int candidate, int start, int end, double score) {
+        final StepMetrics metrics = this.metrics;
+        if (event == null || metrics == null)
+            return;
+
+        final long nanos = System.nanoTime() - event.beginNanos;
+        metrics.addCandidate(nanos);
+        if (millis != null)
+            millis[candidate] = nanos / 1e6;
+
+        if (event.isEnabled()) {
+            event.candidate = candidate;
+            event.startFrame = start;
+            event.endFrame = end;
+            event.score = score;
+            event.commit();
+        }
+    }
+
+    private Simulator acquireSim() {
+        Simulator sim = simPool.poll();
+        return sim != null ? sim : new Simulator(OriSim);
+    }
+
+    // 放回池中前解除参数绑定，避免池中的模拟器一直引用调用者的种群数组；池已满时丢弃多出的模拟器
+    private void releaseSim(Simulator sim) {
+        sim.unbindAllPara();
+        if (!simPool.offer(sim))
+            sim.shutdown();
+    }
+
+    // 单精度模式下评估一个候选，参数从 para[offset] 开始；单精度模拟器按需从 OriSim 构造
+    private double evalSinglePrecision(double[] para, int offset, int start, int end) {
+        FloatSimulator sim = floatSimPool.poll();
+        if (sim == null)
+            sim = new FloatSimulator(OriSim);
+        try {
+            sim.setAllPara(para, offset);
+            sim.resetTrue(start);
+            return sim.doStep(start, end);
+        } finally {
+            if (!floatSimPool.offer(sim))
+                sim.shutdown();
+        }
     }
 
     public int numReachedGoal() {
@@ -147,12 +270,29 @@ public class RDScene {
         return OriSim.getAllPara();
     }
 
+    // type 为 "KD_TREE" 或 "GRID"
+    public void setNeighborIndex(String type) {
+        OriSim.setNeighborIndex(NeighborIndex.Type.valueOf(type));
+        resetSimPool();
+    }
+
+    // 打开后 evalPartialP 和 evalPartialStructured 使用单精度引擎，截断评估和其他接口仍为双精度
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    // 预计算障碍物近邻网格，maxRange 取标定范围内 timeHorizonObstacles * maxSpeed + radius 的上界；<= 0 时关闭
+    public void setObstacleGrid(double maxRange) {
+        OriSim.setObstacleGrid(maxRange);
+        resetSimPool();
+    }
+
     public int getTotalFrames() {
-        return allTruePos.size();
+        return allTruePos.getNumFrames();
     }
 
     public int[] getAlive() {
-        int numStep = allTruePos.size() - 1;
+        int numStep = allTruePos.getNumFrames() - 1;
         int[] res = new int[numStep];
         for (int i = 0; i < numStep; i++) {
             int[][] g = null;
@@ -187,60 +327,282 @@ public class RDScene {
     }
 
     public double[] evalPartialP(double[][] paras, final int start, final int end) {
-        final double[] res = new double[paras.length];
+        try {
+            return evalPopulation(new Population(paras), paras.length, start, end);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-        double[][][] dividedPara = Util.splitByD(paras, numThreads);
-        int rb = dividedPara.length;
-        int be = dividedPara[0].length;
-
-        for (int i = 0; i < rb; i++) {
-            final double[][] pslice = dividedPara[i];
-            final int st = i * be;
-
-            Callable<Void> ind = new Callable<Void>() {
-                @Override
-                public Void call() throws Exception {
-                    Simulator sim = new Simulator(OriSim);
-                    List<Agent> simOriAgents = sim.getOriAgents();
-
-                    for (int k = 0; k < pslice.length; k++) {
-                        double[] p = pslice[k];
-                        for (int m = 0; m < numAgents; m++) {
-                            int st = m * 6;
-                            simOriAgents.get(m).setPara(p[st], p[st + 1], p[st + 2], p[st + 3], p[st + 4], p[st + 5]);
-                        }
+    // flat 按行存放 m 个候选，每行 numAgents * 6 个参数，排列与 getAllPara 相同。
+    // 每个候选的参数直接绑定到模拟器（Simulator.bindAllPara），不拆成行、不逐个 agent 复制；评估期间不能修改 flat
+    public double[] evalPartialP(double[] flat, int m, int start, int end) {
+        return evalPartialP(flat, 0, m, start, end);
+    }
 
-                        sim.resetTrue(start);
-                        res[st+k] = sim.doStep(start, end);
-                    }
-                    return null;
-                }
-            };
-            service.submit(ind);
+    // 候选从 flat[offset] 开始
+    public double[] evalPartialP(double[] flat, int offset, int m, int start, int end) {
+        final Population population = flatPopulation(flat, offset, m);
+        try {
+            return evalPopulation(population, m, start, end);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        try {
-            for (int i = 0; i < rb; i++)
-                service.take().get();
+    // 与 evalPartialP(double[], int, int, int) 相同，但评估中的异常直接抛出而不是返回 null，供 EvalServer 把原因回复给客户端
+    public double[] evalPartialPOrThrow(double[] flat, int m, int start, int end) {
+        return evalPopulation(flatPopulation(flat, 0, m), m, start, end);
+    }
 
+    private Population flatPopulation(double[] flat, int offset, int m) {
+        final int stride = numAgents * 6;
+        if (offset < 0 || m < 0 || flat.length - offset < (long) m * stride)
+            throw new IllegalArgumentException("expected " + (long) m * stride + " parameters from offset " + offset + ", got " + (flat.length - offset));
+        return new Population(flat, offset, stride);
+    }
+
+    // buffer 从 position 开始按行存放 m 个候选，position 不变。
+    // 堆上的 buffer 直接绑定其数组；直接内存或内存映射的 buffer 没有数组，先整体读入一次
+    public double[] evalPartialP(DoubleBuffer buffer, int m, int start, int end) {
+        if (buffer.hasArray())
+            return evalPartialP(buffer.array(), buffer.arrayOffset() + buffer.position(), m, start, end);
+
+        final long n = (long) m * numAgents * 6;
+        if (m < 0 || buffer.remaining() < n)
+            throw new IllegalArgumentException("expected " + n + " parameters, got " + buffer.remaining());
+        final double[] flat = new double[(int) n];
+        buffer.duplicate().get(flat);
+        return evalPartialP(flat, 0, m, start, end);
+    }
+
+    // 评估中的异常原样抛出
+    private double[] evalPopulation(Population population, int m, int start, int end) {
+        final double[] res = new double[m];
+        if (m == 0)
             return res;
+        final double[] millis = metrics != null ? new double[m] : null;
+
+        // 每个候选是一个任务，空闲线程从忙碌线程那里窃取，耗时差异大的候选也能均衡分配
+        es.invoke(new EvalTask(population, res, millis, null, null, start, end, 0, m));
+        if (millis != null)
+            lastCandidateMillis = millis;
+        return res;
+    }
+
+    // 一代候选的参数：double[][] 逐行，或按行连续存放的 double[]（第 i 个候选从 base + i * stride 开始）
+    private static final class Population {
+        private final double[][] rows;
+        private final double[] flat;
+        private final int base, stride;
+
+        Population(double[][] rows) {
+            this.rows = rows;
+            this.flat = null;
+            this.base = 0;
+            this.stride = 0;
+        }
+
+        Population(double[] flat, int base, int stride) {
+            this.rows = null;
+            this.flat = flat;
+            this.base = base;
+            this.stride = stride;
+        }
+
+        void applyTo(Simulator sim, int i) {
+            if (rows != null)
+                sim.setAllPara(rows[i]);
+            else
+                sim.bindAllPara(flat, base + i * stride);
+        }
+
+        double[] array(int i) {
+            return rows != null ? rows[i] : flat;
+        }
+
+        int offset(int i) {
+            return rows != null ? 0 : base + i * stride;
+        }
+    }
+
+    // 带截断的评估：误差下界超过截断值的候选提前终止，结果标记为 aborted，score 为下界。
+    // 截断值取 cutoff 与已完成候选中第 k 好的成绩两者中较小的；cutoff 为 Inf 且 k <= 0 时等同 evalPartialP。
+    // 被终止的候选一定不在前 k 名之内
+    public EvalResult[] evalPartialCutoff(double[][] paras, final int start, final int end, double cutoff, int k) {
+        final EvalResult[] results = new EvalResult[paras.length];
+        if (paras.length == 0)
+            return results;
+
+        try {
+            es.invoke(new EvalTask(new Population(paras), null, null, results, new Cutoff(cutoff, k), start, end, 0, paras.length));
+            return results;
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    // 固定截断值与已完成候选中第 k 好的成绩两者中较小的，随评估进行只减不增
+    private static class Cutoff implements DoubleSupplier {
+        private final double fixed;
+        private final int k;
+        private final PriorityQueue<Double> best = new PriorityQueue<>(11, Collections.reverseOrder());
+        private volatile double current;
+
+        Cutoff(double fixed, int k) {
+            this.fixed = fixed;
+            this.k = k;
+            this.current = fixed;
+        }
+
+        @Override
+        public double getAsDouble() {
+            return current;
+        }
+
+        synchronized void offer(EvalResult r) {
+            if (r.aborted || k <= 0)
+                return;
+
+            best.add(r.score);
+            if (best.size() > k)
+                best.poll();
+            if (best.size() == k)
+                current = Math.min(fixed, best.peek());
+        }
+    }
+
+    private class EvalTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Population paras;
+        // 普通模式写入 res，截断模式写入 results
+        private final double[] res;
+        // 统计打开时的逐候选耗时
+        private final double[] millis;
+        private final EvalResult[] results;
+        private final Cutoff cutoff;
+        private final int start, end, lo, hi;
+
+        EvalTask(Population paras, double[] res, double[] millis, EvalResult[] results, Cutoff cutoff, int start, int end, int lo, int hi) {
+            this.paras = paras;
+            this.res = res;
+            this.millis = millis;
+            this.results = results;
+            this.cutoff = cutoff;
+            this.start = start;
+            this.end = end;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                // 复用池中的模拟器，resetTrue 会重置位置、速度和误差
+                if (cutoff == null && singlePrecision) {
+                    final CandidateEvalEvent event = candidateBegin();
+                    res[lo] = evalSinglePrecision(paras.array(lo), paras.offset(lo), start, end);
+                    candidateEnd(event, millis, lo, start, end, res[lo]);
+                    return;
+                }
+
+                Simulator sim = acquireSim();
+                try {
+                    paras.applyTo(sim, lo);
+                    sim.resetTrue(start);
+                    if (cutoff == null) {
+                        final CandidateEvalEvent event = candidateBegin();
+                        res[lo] = sim.doStep(start, end);
+                        candidateEnd(event, millis, lo, start, end, res[lo]);
+                    } else {
+                        results[lo] = sim.doStep(start, end, cutoff);
+                        cutoff.offer(results[lo]);
+                    }
+                } finally {
+                    releaseSim(sim);
+                }
+                return;
+            }
+
+            final int mid = (lo + hi) >>> 1;
+            invokeAll(new EvalTask(paras, res, millis, results, cutoff, start, end, lo, mid), new EvalTask(paras, res, millis, results, cutoff, start, end, mid, hi));
+        }
+    }
+
+    // 结构化并发模式：每个候选一个子任务（支持时为虚拟线程），任一候选失败时取消其余候选并抛出异常，
+    // 返回前所有子任务都已结束。适合在一个 JVM 中同时处理多个场景或评估请求
+    public double[] evalPartialStructured(final double[][] paras, final int start, final int end) throws InterruptedException, ExecutionException {
+        final double[] res = new double[paras.length];
+        final double[] millis = metrics != null ? new double[paras.length] : null;
+
+        try (TaskScope<Void> scope = new TaskScope<>()) {
+            for (int i = 0; i < paras.length; i++) {
+                final int k = i;
+                scope.fork(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        simPermits.acquire();
+                        if (singlePrecision) {
+                            try {
+                                final CandidateEvalEvent event = candidateBegin();
+                                res[k] = evalSinglePrecision(paras[k], 0, start, end);
+                                candidateEnd(event, millis, k, start, end, res[k]);
+                            } finally {
+                                simPermits.release();
+                            }
+                            return null;
+                        }
+
+                        Simulator sim = acquireSim();
+                        try {
+                            sim.setAllPara(paras[k]);
+                            sim.resetTrue(start);
+                            final CandidateEvalEvent event = candidateBegin();
+                            res[k] = sim.doStep(start, end);
+                            candidateEnd(event, millis, k, start, end, res[k]);
+                        } finally {
+                            releaseSim(sim);
+                            simPermits.release();
+                        }
+                        return null;
+                    }
+                });
+            }
+            scope.join();
+        }
+
+        if (millis != null)
+            lastCandidateMillis = millis;
+        return res;
+    }
+
     public void destroyExecutor() {
         es.shutdownNow();
     }
 
+    @Override
+    public void close() {
+        destroyExecutor();
+        OriSim.shutdown();
+        for (Simulator sim : simPool)
+            sim.shutdown();
+        simPool.clear();
+        for (FloatSimulator sim : floatSimPool)
+            sim.shutdown();
+        floatSimPool.clear();
+    }
+
     public double[] FevalResetInteval(double[] para, int interval) {
         for (int j = 0; j < numAgents; j++) {
             int st = j * 6;
             allAgents.get(j).setPara(para[st], para[st + 1], para[st + 2], para[st + 3], para[st + 4], para[st + 5]);
         }
 
-        int totalStep = allTruePos.size() - 1;
+        int totalStep = allTruePos.getNumFrames() - 1;
         int times = totalStep / interval;
         int rem = totalStep % interval == 0 ? 0 : 1;
         double[] res = new double[times + rem];
@@ -258,8 +620,22 @@ public class RDScene {
     public int getNumGroups() { return allGroups.size(); }
     public int getNumAgents() { return numAgents; }
 
+    // 用 para 评估第 g 个小组，结果与完整模拟相同；只有窗口帧数 * 每帧影响距离小于场景尺度时才会少模拟 agent，
+    // 长窗口下通常与完整模拟一样慢，见 Simulator.doStepWithGroupROI
+    public double groupFevalROI(int g, double[] para) {
+        return groupFevalROI(g, para, 0);
+    }
+
+    // 标定时使用的版本：只模拟 horizon 帧内可能影响小组的 agent，其余按真实轨迹回放，结果是近似值
+    public double groupFevalROI(int g, double[] para, int horizon) {
+        Group group = allGroups.get(g);
+        OriSim.setAllPara(para);
+        OriSim.resetTrue(group.st);
+        return OriSim.doStepWithGroupROI(group.st, group.ed, group.getAllMembers(), horizon);
+    }
+
     public double step() {
-        if (step == allTruePos.size()-1)
+        if (step == allTruePos.getNumFrames()-1)
             return -1;
         double diff = OriSim.doStep(step, step+1);
         step++;
@@ -267,12 +643,11 @@ public class RDScene {
     }
 
     public double stepTrue() {
-        if (step == allTruePos.size()-1)
+        if (step == allTruePos.getNumFrames()-1)
             return -1;
         step++;
-        List<Vector2D> curTrue = allTruePos.get(step);
         for (int i = 0; i < allAgents.size(); i++)
-            allAgents.get(i).setPosition(curTrue.get(i));
+            allAgents.get(i).setPosition(new Vector2D(allTruePos.getX(step, i), allTruePos.getY(step, i)));
         return 0;
     }
 
@@ -285,15 +660,14 @@ public class RDScene {
     }
 
     public int[] getNumAlive() {
+        // 存活人数直接由真实轨迹算出并缓存，不再逐帧回放
+        int[] res = OriSim.getAliveTimeline();
+
+        // 保持与逐帧回放之后相同的状态：位置停在最后一帧的真实位置
         OriSim.resetTrue(0);
-        step = 0;
-        int[] res = new int[allTruePos.size()-1];
-        for (int i = 0; i < allTruePos.size() - 1; i++) {
-            for (Agent a : allAgents)
-                if (a.canShowUp(step) && !a.reachedGoal())
-                    res[i] += 1;
-            stepTrue();
-        }
+        step = Math.max(allTruePos.getNumFrames() - 1, 0);
+        for (int i = 0; i < allAgents.size(); i++)
+            allAgents.get(i).setPosition(new Vector2D(allTruePos.getX(step, i), allTruePos.getY(step, i)));
         return res;
     }
 
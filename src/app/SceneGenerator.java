@@ -0,0 +1,297 @@
+package app;
+
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import rvo.Simulator;
+import utilPac.Trajectory;
+import utilPac.TrajectoryFile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 合成场景生成器，输出与 DML2 相同格式的数据目录（DML2.xml、allTruePos.txt 或 allTruePos.bin、startEnd.txt、allTruePosDiff.txt），
+// 用于 Simulator 和 RDScene 的规模测试。
+// 场地为边长 sqrt(numAgents / density) 的正方形，行人一半从左向右、一半从右向左穿过场地；
+// spawnRate 为 0 时所有人在第 0 帧随机分布在场地内，否则每秒 spawnRate 人从左右两边进入。
+// 障碍物为随机放置的矩形。真实轨迹为以 preferedSpeed 直线走向目标（不绕开障碍物），按需计算，不占内存。
+// 用法：java app.SceneGenerator <outDir> [-agents N] [-density D] [-obstacles M] [-spawnRate R] [-frames F] [-seed S] [-bin] [-float32]
+public class SceneGenerator {
+    static final double TIME_STEP = 0.1;
+    // 与 RDScene.setupScene 中的默认参数一致
+    static final double PREF_SPEED = 1.3;
+    static final double RADIUS = 0.2;
+
+    private static final double MIN_SPEED = 1.0, MAX_SPEED = 1.5;
+    private static final double MIN_OBSTACLE_SIZE = 1.0, MAX_OBSTACLE_SIZE = 3.0;
+    // 障碍物占用格子的边长，用于放置行人时排除障碍物内部
+    private static final double OCCUPANCY_CELL = 0.5;
+
+    private int numAgents = 1000;
+    private double density = 0.5;
+    private int numObstacles = 10;
+    private double spawnRate = 0;
+    private int numFrames = 400;
+    private long seed = 1;
+
+    // 生成结果
+    private double side;
+    private double[] startX, startY, goalX, goalY, speed;
+    private int[] start, steps;
+    // 每个障碍物为 minX minY maxX maxY
+    private double[][] obstacles;
+
+    public void setNumAgents(int numAgents) { this.numAgents = numAgents; }
+    // 每平方米的人数，决定场地大小
+    public void setDensity(double density) { this.density = density; }
+    public void setNumObstacles(int numObstacles) { this.numObstacles = numObstacles; }
+    // 每秒进入场地的人数，0 表示全部在第 0 帧出现
+    public void setSpawnRate(double spawnRate) { this.spawnRate = spawnRate; }
+    public void setNumFrames(int numFrames) { this.numFrames = numFrames; }
+    public void setSeed(long seed) { this.seed = seed; }
+
+    public int getNumAgents() { return numAgents; }
+    // 在 numFrames 帧内出现的人数
+    public int getNumSpawned() {
+        int n = 0;
+        for (int i = 0; i < numAgents; i++)
+            if (start[i] < numFrames)
+                n++;
+        return n;
+    }
+    public int getNumFrames() { return numFrames; }
+    public double getSide() { return side; }
+
+    public void generate() {
+        if (numAgents <= 0 || density <= 0 || numFrames < 2)
+            throw new IllegalArgumentException("need numAgents > 0, density > 0 and numFrames >= 2");
+
+        final Random random = new Random(seed);
+        side = Math.sqrt(numAgents / density);
+
+        generateObstacles(random);
+        final boolean[] occupied = occupancy();
+        final int cells = (int) Math.ceil(side / OCCUPANCY_CELL);
+
+        startX = new double[numAgents];
+        startY = new double[numAgents];
+        goalX = new double[numAgents];
+        goalY = new double[numAgents];
+        speed = new double[numAgents];
+        start = new int[numAgents];
+        steps = new int[numAgents];
+
+        for (int i = 0; i < numAgents; i++) {
+            final boolean leftToRight = i % 2 == 0;
+            double x, y;
+            int tries = 0;
+            do {
+                x = spawnRate > 0 ? (leftToRight ? 0.0 : side) : random.nextDouble() * side;
+                y = random.nextDouble() * side;
+            } while (occupied[cell(y, cells) * cells + cell(x, cells)] && ++tries < 100);
+
+            startX[i] = x;
+            startY[i] = y;
+            goalX[i] = leftToRight ? side : 0.0;
+            goalY[i] = random.nextDouble() * side;
+            speed[i] = MIN_SPEED + (MAX_SPEED - MIN_SPEED) * random.nextDouble();
+            start[i] = spawnRate > 0 ? (int) (i / (spawnRate * TIME_STEP)) : 0;
+
+            final double dist = Math.hypot(goalX[i] - x, goalY[i] - y);
+            steps[i] = Math.max(1, (int) Math.ceil(dist / (speed[i] * TIME_STEP)));
+        }
+    }
+
+    // 真实轨迹，按需计算
+    public Trajectory trajectory() {
+        return new Trajectory() {
+            @Override
+            public int getNumFrames() { return numFrames; }
+
+            @Override
+            public int getNumAgents() { return numAgents; }
+
+            @Override
+            public double getX(int frame, int agent) {
+                return startX[agent] + progress(frame, agent) * (goalX[agent] - startX[agent]);
+            }
+
+            @Override
+            public double getY(int frame, int agent) {
+                return startY[agent] + progress(frame, agent) * (goalY[agent] - startY[agent]);
+            }
+        };
+    }
+
+    // 第 i 个行人的起止帧，与 startEnd.txt 一致
+    public int getStart(int i) { return start[i]; }
+    public int getEnd(int i) { return Math.min(numFrames - 1, start[i] + steps[i]); }
+
+    // 与 RDScene.setupScene 读入写出的文件后得到的 OriSim 相同，但不经过文件
+    public void populate(Simulator sim) {
+        sim.setTimeStep(TIME_STEP);
+        for (int i = 0; i < numAgents; i++)
+            sim.addAgent(i, new Vector2D(startX[i], startY[i]), new Vector2D(goalX[i], goalY[i]), 20, 10, 0.5, 0.5, RADIUS, PREF_SPEED, PREF_SPEED * 2.0, getStart(i), getEnd(i), Vector2D.ZERO);
+
+        for (double[] o : obstacles) {
+            // 逆时针
+            final List<Vector2D> vertices = new ArrayList<>();
+            vertices.add(new Vector2D(o[0], o[1]));
+            vertices.add(new Vector2D(o[2], o[1]));
+            vertices.add(new Vector2D(o[2], o[3]));
+            vertices.add(new Vector2D(o[0], o[3]));
+            sim.addObstacle(vertices);
+        }
+        sim.processObstacles();
+        sim.setTruePos(trajectory());
+    }
+
+    // 写出数据目录；binary 为 true 时真实轨迹写为 allTruePos.bin（RDScene 优先内存映射），否则写 allTruePos.txt
+    public void write(String dataDir, boolean binary, boolean singlePrecision) throws IOException {
+        final Path dir = Paths.get(dataDir);
+        Files.createDirectories(dir);
+
+        try (Writer w = writer(dir.resolve("DML2.xml"))) {
+            w.write("<scene>\n");
+            for (int i = 0; i < numAgents; i++) {
+                w.write("<crowd><id>" + i + "</id><position x=\"" + startX[i] + "\" y=\"" + startY[i] + "\"/><goal x=\"" + goalX[i] + "\" y=\"" + goalY[i]
+                        + "\"/><preferedSpeed>" + speed[i] + "</preferedSpeed></crowd>\n");
+            }
+            // RDScene 倒序读取顶点，因此这里按顺时针写出
+            for (double[] o : obstacles) {
+                w.write("<obstacles><vertices x=\"" + o[0] + "\" y=\"" + o[3] + "\"/><vertices x=\"" + o[2] + "\" y=\"" + o[3]
+                        + "\"/><vertices x=\"" + o[2] + "\" y=\"" + o[1] + "\"/><vertices x=\"" + o[0] + "\" y=\"" + o[1] + "\"/></obstacles>\n");
+            }
+            w.write("</scene>\n");
+        }
+
+        try (Writer w = writer(dir.resolve("startEnd.txt"))) {
+            for (int i = 0; i < numAgents; i++)
+                w.write(getStart(i) + " " + getEnd(i) + "\n");
+        }
+
+        final Trajectory traj = trajectory();
+
+        // 相邻两帧真实位置的距离，与 Util.calcPosDiff 相同；0 写为 "0" 以减小文件
+        try (Writer w = writer(dir.resolve("allTruePosDiff.txt"))) {
+            final StringBuilder sb = new StringBuilder();
+            for (int f = 0; f + 1 < numFrames; f++) {
+                sb.setLength(0);
+                for (int i = 0; i < numAgents; i++) {
+                    final double d = Math.hypot(traj.getX(f + 1, i) - traj.getX(f, i), traj.getY(f + 1, i) - traj.getY(f, i));
+                    if (i > 0)
+                        sb.append(' ');
+                    if (d == 0)
+                        sb.append('0');
+                    else
+                        sb.append(d);
+                }
+                sb.append('\n');
+                w.write(sb.toString());
+            }
+        }
+
+        if (binary) {
+            TrajectoryFile.write(dir.resolve("allTruePos.bin").toString(), traj, singlePrecision);
+        } else {
+            Files.deleteIfExists(dir.resolve("allTruePos.bin"));
+            try (Writer w = writer(dir.resolve("allTruePos.txt"))) {
+                final StringBuilder sb = new StringBuilder();
+                for (int f = 0; f < numFrames; f++) {
+                    sb.setLength(0);
+                    for (int i = 0; i < numAgents; i++)
+                        sb.append(traj.getX(f, i)).append(' ').append(traj.getY(f, i)).append(' ');
+                    sb.append('\n');
+                    w.write(sb.toString());
+                }
+            }
+        }
+    }
+
+    private double progress(int frame, int agent) {
+        return Math.min(Math.max(frame - start[agent], 0), steps[agent]) / (double) steps[agent];
+    }
+
+    // 障碍物放在场地中间 80% 的范围内，左右两边留给进入的行人；互相重叠时重新取位置
+    private void generateObstacles(Random random) {
+        final List<double[]> res = new ArrayList<>();
+        for (int k = 0; k < numObstacles; k++) {
+            for (int tries = 0; tries < 100; tries++) {
+                final double w = MIN_OBSTACLE_SIZE + (MAX_OBSTACLE_SIZE - MIN_OBSTACLE_SIZE) * random.nextDouble();
+                final double h = MIN_OBSTACLE_SIZE + (MAX_OBSTACLE_SIZE - MIN_OBSTACLE_SIZE) * random.nextDouble();
+                final double x = 0.1 * side + (0.8 * side - w) * random.nextDouble();
+                final double y = (side - h) * random.nextDouble();
+                final double[] o = {x, y, x + w, y + h};
+
+                if (w < 0.8 * side && h < side && !overlaps(res, o)) {
+                    res.add(o);
+                    break;
+                }
+            }
+        }
+        obstacles = res.toArray(new double[0][]);
+    }
+
+    private static boolean overlaps(List<double[]> placed, double[] o) {
+        for (double[] p : placed) {
+            if (o[0] < p[2] + RADIUS && p[0] < o[2] + RADIUS && o[1] < p[3] + RADIUS && p[1] < o[3] + RADIUS)
+                return true;
+        }
+        return false;
+    }
+
+    // 被障碍物（外扩一个半径）覆盖的格子
+    private boolean[] occupancy() {
+        final int cells = (int) Math.ceil(side / OCCUPANCY_CELL);
+        final boolean[] occupied = new boolean[cells * cells];
+        for (double[] o : obstacles) {
+            for (int cy = cell(o[1] - RADIUS, cells); cy <= cell(o[3] + RADIUS, cells); cy++)
+                for (int cx = cell(o[0] - RADIUS, cells); cx <= cell(o[2] + RADIUS, cells); cx++)
+                    occupied[cy * cells + cx] = true;
+        }
+        return occupied;
+    }
+
+    private static int cell(double v, int cells) {
+        return Math.max(0, Math.min(cells - 1, (int) (v / OCCUPANCY_CELL)));
+    }
+
+    private static Writer writer(Path p) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(p, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: SceneGenerator <outDir> [-agents N] [-density D] [-obstacles M] [-spawnRate R] [-frames F] [-seed S] [-bin] [-float32]");
+            System.exit(1);
+        }
+
+        final SceneGenerator gen = new SceneGenerator();
+        boolean binary = false, singlePrecision = false;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-agents": gen.setNumAgents(Integer.parseInt(args[++i])); break;
+                case "-density": gen.setDensity(Double.parseDouble(args[++i])); break;
+                case "-obstacles": gen.setNumObstacles(Integer.parseInt(args[++i])); break;
+                case "-spawnRate": gen.setSpawnRate(Double.parseDouble(args[++i])); break;
+                case "-frames": gen.setNumFrames(Integer.parseInt(args[++i])); break;
+                case "-seed": gen.setSeed(Long.parseLong(args[++i])); break;
+                case "-bin": binary = true; break;
+                case "-float32": binary = true; singlePrecision = true; break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        gen.generate();
+        gen.write(args[0], binary, singlePrecision);
+        System.out.println("wrote " + gen.getNumAgents() + " agents (" + gen.getNumSpawned() + " appear within " + gen.getNumFrames() + " frames), side " + gen.getSide() + " m to " + args[0]);
+    }
+}
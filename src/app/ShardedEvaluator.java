@@ -0,0 +1,339 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 多进程的批量评估：启动 numWorkers 个 EvalServer 进程，各自载入场景、拥有独立的堆和 GC，
+// 种群按行切成小批放入共享队列，每个工作进程取完一批再取下一批，快的进程自然多做。
+// 工作进程崩溃或超时（setRequestTimeout）时重启该进程，这一批重新入队；同一批失败 maxAttempts 次后放弃。
+// 重启失败的工作进程在本次调用中不再使用，下次调用时再尝试启动；没有可用的工作进程时才失败。
+// 服务端回复的错误（EvalClient.RemoteException）是请求本身的问题，不重试，直接失败。
+// 结果与 RDScene.evalPartialP 相同
+public class ShardedEvaluator implements AutoCloseable {
+    private static final String READY_PREFIX = "EvalServer listening on port ";
+
+    private final String dataDir;
+    private final int numWorkers;
+    private final int threadsPerWorker;
+    private int edFrame = 0;
+    private final List<String> jvmOptions = new ArrayList<>();
+    private int requestTimeoutMillis = 0;
+    private int startupTimeoutMillis = 600000;
+    private int batchSize = 0;
+    private int maxAttempts = 3;
+
+    private Worker[] workers = new Worker[0];
+    private ExecutorService dispatchers = null;
+    // 重启次数，用于监控
+    private final AtomicInteger restarts = new AtomicInteger();
+
+    public ShardedEvaluator(String dataDir, int numWorkers, int threadsPerWorker) {
+        if (numWorkers < 1)
+            throw new IllegalArgumentException("numWorkers must be positive: " + numWorkers);
+        this.dataDir = dataDir.endsWith(File.separator) ? dataDir : dataDir + File.separator;
+        this.numWorkers = numWorkers;
+        this.threadsPerWorker = threadsPerWorker;
+    }
+
+    public void setEdFrame(int edFrame) { this.edFrame = edFrame; }
+
+    // 工作进程的 JVM 参数，例如 -Xmx
+    public void setJvmOptions(String... options) {
+        jvmOptions.clear();
+        jvmOptions.addAll(Arrays.asList(options));
+    }
+
+    // 一批的最长等待时间，0 为不限，对已启动的工作进程同样生效
+    public void setRequestTimeout(int millis) throws IOException {
+        this.requestTimeoutMillis = millis;
+        for (Worker w : workers)
+            if (w.client != null)
+                w.client.setTimeout(millis);
+    }
+    // 工作进程载入场景并就绪的最长等待时间，0 为不限
+    public void setStartupTimeout(int millis) { this.startupTimeoutMillis = millis; }
+    // 每批的候选数，0 时按每个工作进程约 4 批自动选择
+    public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+    public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+    public int getRestarts() { return restarts.get(); }
+
+    // 启动所有工作进程，等待它们载入场景；至少有一个启动成功即可
+    public void start() throws IOException {
+        workers = new Worker[numWorkers];
+        dispatchers = Executors.newFixedThreadPool(numWorkers);
+        int live = 0;
+        for (int w = 0; w < numWorkers; w++) {
+            workers[w] = new Worker();
+            if (workers[w].tryRestart())
+                live++;
+        }
+        if (live == 0)
+            throw new IOException("no worker could be started");
+    }
+
+    public double[] evalPartialP(double[][] paras, int start, int end) throws IOException, InterruptedException {
+        final int m = paras.length;
+        if (m == 0)
+            return new double[0];
+
+        final int k = paras[0].length;
+        for (int i = 1; i < m; i++)
+            if (paras[i].length != k)
+                throw new IllegalArgumentException("candidate " + i + ": expected " + k + " parameters, got " + paras[i].length);
+        if ((long) m * k > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(m + " candidates of " + k + " parameters do not fit in one array");
+
+        final double[] flat = new double[m * k];
+        for (int i = 0; i < m; i++)
+            System.arraycopy(paras[i], 0, flat, i * k, k);
+        return evalPartialP(flat, m, start, end);
+    }
+
+    // flat 按行存放 m 个候选，排列与 RDScene.evalPartialP(double[], int, int, int) 相同，各批直接从 flat 发送
+    public double[] evalPartialP(final double[] flat, final int m, final int start, final int end) throws IOException, InterruptedException {
+        final double[] res = new double[m];
+        if (m == 0)
+            return res;
+
+        final int size = batchSize > 0 ? batchSize : Math.max(1, (m + 4 * numWorkers - 1) / (4 * numWorkers));
+        final int numBatches = (m + size - 1) / size;
+        final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+        for (int b = 0; b < numBatches; b++)
+            queue.add(b);
+        final AtomicInteger[] attempts = new AtomicInteger[numBatches];
+        for (int b = 0; b < numBatches; b++)
+            attempts[b] = new AtomicInteger();
+
+        // 上次调用中失效的工作进程在这里重新启动，仍然失败的本次不参与
+        final List<Worker> live = new ArrayList<>();
+        for (Worker w : workers)
+            if (w.client != null || w.tryRestart())
+                live.add(w);
+
+        // 一轮中失效的工作进程会把手上的批放回队列，由下一轮剩下的工作进程完成
+        while (!queue.isEmpty()) {
+            if (live.isEmpty())
+                throw new IOException(queue.size() + " batches were not evaluated: no live workers");
+
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (final Worker worker : live) {
+                futures.add(dispatchers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        Integer b;
+                        while ((b = queue.poll()) != null) {
+                            final int from = b * size;
+                            final int n = Math.min(size, m - from);
+                            try {
+                                final double[] scores = worker.client.evalRows(flat, from, n, start, end);
+                                System.arraycopy(scores, 0, res, from, n);
+                            } catch (EvalClient.RemoteException e) {
+                                queue.clear();
+                                throw e;
+                            } catch (IOException e) {
+                                if (attempts[b].incrementAndGet() >= maxAttempts) {
+                                    queue.clear();
+                                    throw new IOException("batch " + b + " failed " + maxAttempts + " times", e);
+                                }
+                                queue.add(b);
+                                if (!worker.tryRestart())
+                                    return null;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            IOException failure = null;
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+            if (failure != null)
+                throw failure;
+
+            for (int i = live.size() - 1; i >= 0; i--)
+                if (live.get(i).client == null)
+                    live.remove(i);
+        }
+
+        return res;
+    }
+
+    @Override
+    public void close() {
+        for (Worker w : workers)
+            if (w != null)
+                w.stop();
+        if (dispatchers != null)
+            dispatchers.shutdownNow();
+    }
+
+    // 一个 EvalServer 进程及其连接；client 为 null 表示当前没有可用的进程
+    private class Worker {
+        Process process;
+        EvalClient client;
+        boolean launched = false;
+
+        // 重新启动，失败时保持停止状态并返回 false
+        boolean tryRestart() {
+            try {
+                restart();
+                return true;
+            } catch (IOException e) {
+                System.err.println("ShardedEvaluator: worker restart failed: " + e);
+                stop();
+                return false;
+            }
+        }
+
+        void restart() throws IOException {
+            if (launched)
+                restarts.incrementAndGet();
+            launched = true;
+            stop();
+
+            final List<String> cmd = new ArrayList<>();
+            cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            cmd.addAll(jvmOptions);
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(EvalServer.class.getName());
+            cmd.add(dataDir);
+            cmd.add("0");
+            cmd.add(String.valueOf(threadsPerWorker));
+            cmd.add(String.valueOf(edFrame));
+
+            process = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+            // 服务就绪后在标准输出打印端口；进程在此之前退出时收到空字符串
+            final BlockingQueue<String> ready = new ArrayBlockingQueue<>(1);
+            drain(new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset())), ready);
+            final String line;
+            try {
+                line = startupTimeoutMillis > 0 ? ready.poll(startupTimeoutMillis, TimeUnit.MILLISECONDS) : ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stop();
+                throw new InterruptedIOException("interrupted while waiting for worker");
+            }
+            if (line == null) {
+                stop();
+                throw new IOException("worker was not ready within " + startupTimeoutMillis + " ms");
+            }
+            if (line.isEmpty()) {
+                stop();
+                throw new IOException("worker exited before it was ready");
+            }
+
+            client = new EvalClient(Integer.parseInt(line.substring(READY_PREFIX.length()).trim()));
+            client.setTimeout(requestTimeoutMillis);
+        }
+
+        void stop() {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // 进程可能已经退出
+                }
+                client = null;
+            }
+            if (process != null) {
+                process.destroyForcibly();
+                process = null;
+            }
+        }
+
+        // 读取标准输出直到进程退出，避免管道写满后工作进程阻塞；就绪的那一行交给 ready，就绪前退出时交出空字符串
+        private void drain(final BufferedReader stdout, final BlockingQueue<String> ready) {
+            final Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean announced = false;
+                    try {
+                        String line;
+                        while ((line = stdout.readLine()) != null) {
+                            if (!announced && line.startsWith(READY_PREFIX)) {
+                                ready.offer(line);
+                                announced = true;
+                            }
+                        }
+                    } catch (IOException e) {
+                        // 进程已退出
+                    }
+                    if (!announced)
+                        ready.offer("");
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // 用随机扰动的种群比较多进程与单进程的结果
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("usage: ShardedEvaluator <dataDir> <numWorkers> <popSize> <stFrame> <edFrame>");
+            System.exit(1);
+        }
+
+        final String dataDir = args[0].endsWith(File.separator) ? args[0] : args[0] + File.separator;
+        final int numWorkers = Integer.parseInt(args[1]);
+        final int popSize = Integer.parseInt(args[2]);
+        final int stFrame = Integer.parseInt(args[3]);
+        final int edFrame = Integer.parseInt(args[4]);
+
+        try (RDScene rd = new RDScene(edFrame, dataDir, "", 1);
+             ShardedEvaluator sharded = new ShardedEvaluator(dataDir, numWorkers, 1)) {
+            rd.setupScene();
+
+            final double[] base = rd.getAllPara();
+            final Random random = new Random(1);
+            final double[][] paras = new double[popSize][];
+            for (int i = 0; i < popSize; i++) {
+                paras[i] = base.clone();
+                for (int j = 0; j < base.length; j++)
+                    paras[i][j] *= 0.9 + 0.2 * random.nextDouble();
+            }
+
+            sharded.setEdFrame(edFrame);
+            sharded.start();
+
+            long t = System.nanoTime();
+            final double[] remote = sharded.evalPartialP(paras, stFrame, edFrame);
+            System.out.printf("sharded (%d workers): %.1f ms%n", numWorkers, (System.nanoTime() - t) / 1e6);
+
+            t = System.nanoTime();
+            final double[] local = rd.evalPartialP(paras, stFrame, edFrame);
+            System.out.printf("single process:       %.1f ms%n", (System.nanoTime() - t) / 1e6);
+
+            System.out.println(Arrays.equals(remote, local) ? "scores match" : "scores differ");
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package dist;
+
+import app.RDScene;
+import rvo.Agent;
+import rvo.Region;
+import rvo.Simulator;
+import utilPac.TrajectoryFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 按 x 坐标把场景切成 numRegions 个竖条，每个竖条由一个 RegionWorker 进程模拟，进程之间通过本机 socket 交换
+// 边界附近的 halo agent 和跨越边界的 agent。切分点取起始帧 agent 位置的分位数，此后不变。
+// halo 宽度取所有 agent 的 neighborDistance 的最大值，因此每个 agent 看到的近邻与单进程模拟相同，
+// run 的结果与 sim.resetTrue(stFrame) 后 sim.doStep(stFrame, edFrame) 相同（距离相等的近邻先后顺序除外）。
+// 中间竖条的宽度必须超过 halo 宽度加上一帧的最大位移，否则 run 抛出 IllegalStateException，应减少区域数。
+// 分区只分摊计算，不分摊内存：协调者持有完整的场景并在结束时汇总所有 agent，
+// 每个工作进程映射完整的真实轨迹文件（只有本区域用到的页会被读入），场景大小仍受单个进程的堆限制
+public class PartitionedSimulation {
+    private static final int ACCEPT_TIMEOUT_MILLIS = 60000;
+    private static final int EXIT_TIMEOUT_SECONDS = 10;
+
+    private final Simulator sim;
+    private final int numRegions;
+    private String trajectoryFile = null;
+    private int timeoutMillis = 600000;
+    private final List<String> jvmOptions = new ArrayList<>();
+
+    // sim 为配置好的完整场景，run 结束后其中的 agent 状态为模拟结束时的状态
+    public PartitionedSimulation(Simulator sim, int numRegions) {
+        if (numRegions < 1)
+            throw new IllegalArgumentException("numRegions must be positive: " + numRegions);
+        this.sim = sim;
+        this.numRegions = numRegions;
+    }
+
+    // 工作进程映射的真实轨迹文件（TrajectoryFile 的二进制格式）；未设置时把 sim 的真实轨迹写到临时文件
+    public void setTrajectoryFile(String trajectoryFile) {
+        this.trajectoryFile = trajectoryFile;
+    }
+
+    // 控制连接和相邻区域连接上单次读取的最长等待时间，包括等待工作进程完成模拟并发回结果，0 为不限
+    public void setTimeout(int millis) {
+        this.timeoutMillis = millis;
+    }
+
+    // 工作进程的 JVM 参数，例如 -Xmx
+    public void setJvmOptions(String... options) {
+        jvmOptions.clear();
+        jvmOptions.addAll(Arrays.asList(options));
+    }
+
+    public double run(int stFrame, int edFrame) throws IOException, InterruptedException {
+        sim.resetTrue(stFrame);
+
+        final double haloWidth = Region.haloWidth(sim);
+        final double[] bounds = bounds(sim.getOriAgents(), haloWidth + Region.maxStep(sim));
+
+        Path tempFile = null;
+        String trajectory = trajectoryFile;
+        if (trajectory == null) {
+            tempFile = Files.createTempFile("truePos", ".bin");
+            TrajectoryFile.write(tempFile.toString(), sim.getTruePos(), false);
+            trajectory = tempFile.toString();
+        }
+
+        final Process[] workers = new Process[numRegions];
+        final Socket[] controls = new Socket[numRegions];
+        boolean done = false;
+        try (ServerSocket server = new ServerSocket(0, numRegions, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+            for (int r = 0; r < numRegions; r++)
+                workers[r] = launch(server.getLocalPort(), r);
+
+            // 工作进程报告自己的下标和监听端口
+            final DataInputStream[] ins = new DataInputStream[numRegions];
+            final DataOutputStream[] outs = new DataOutputStream[numRegions];
+            final int[] ports = new int[numRegions];
+            for (int k = 0; k < numRegions; k++) {
+                final Socket s = server.accept();
+                s.setSoTimeout(timeoutMillis);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                final int r = in.readInt();
+                controls[r] = s;
+                ins[r] = in;
+                outs[r] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                ports[r] = in.readInt();
+            }
+
+            for (int r = 0; r < numRegions; r++) {
+                final DataOutputStream out = outs[r];
+                out.writeDouble(bounds[r]);
+                out.writeDouble(bounds[r + 1]);
+                out.writeDouble(haloWidth);
+                out.writeInt(stFrame);
+                out.writeInt(edFrame);
+                out.writeUTF(trajectory);
+                out.writeInt(r > 0 ? ports[r - 1] : -1);
+                Region.writeScene(sim, out);
+                writeAgents(out, bounds[r], bounds[r + 1]);
+                out.writeBoolean(r + 1 < numRegions);
+                out.flush();
+            }
+
+            for (int r = 0; r < numRegions; r++)
+                Region.readInto(sim, ins[r], ins[r].readInt());
+            done = true;
+        } finally {
+            for (Socket s : controls)
+                if (s != null)
+                    s.close();
+            // 正常结束时工作进程已发回结果，随后自行退出；出错时直接结束所有工作进程
+            for (Process p : workers)
+                if (p != null && !(done && p.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)))
+                    p.destroyForcibly();
+            if (tempFile != null)
+                Files.deleteIfExists(tempFile);
+        }
+
+        return sim.getScore();
+    }
+
+    // 竖条的边界，bounds[0] 为 -Inf，bounds[numRegions] 为 +Inf
+    private double[] bounds(List<Agent> agents, double minWidth) {
+        final double[] xs = new double[agents.size()];
+        for (int i = 0; i < xs.length; i++)
+            xs[i] = agents.get(i).getPosition().getX();
+        Arrays.sort(xs);
+
+        final double[] bounds = new double[numRegions + 1];
+        bounds[0] = Double.NEGATIVE_INFINITY;
+        bounds[numRegions] = Double.POSITIVE_INFINITY;
+        for (int r = 1; r < numRegions; r++)
+            bounds[r] = xs.length == 0 ? r : xs[(int) ((long) r * xs.length / numRegions)];
+
+        for (int r = 1; r + 1 < numRegions; r++)
+            if (!(bounds[r + 1] - bounds[r] > minWidth))
+                throw new IllegalStateException("region " + r + " is " + (bounds[r + 1] - bounds[r]) + " wide, needs more than " + minWidth + "; use fewer regions");
+
+        return bounds;
+    }
+
+    private void writeAgents(DataOutputStream out, double lo, double hi) throws IOException {
+        final List<Agent> agents = sim.getOriAgents();
+        int n = 0;
+        for (Agent a : agents) {
+            final double x = a.getPosition().getX();
+            if (x >= lo && x < hi)
+                n++;
+        }
+
+        out.writeInt(n);
+        for (int i = 0; i < agents.size(); i++) {
+            final double x = agents.get(i).getPosition().getX();
+            if (x >= lo && x < hi)
+                Region.writeAgent(sim, i, out);
+        }
+    }
+
+    private Process launch(int port, int index) throws IOException {
+        final List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(jvmOptions);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(RegionWorker.class.getName());
+        cmd.add(String.valueOf(port));
+        cmd.add(String.valueOf(index));
+        cmd.add(String.valueOf(timeoutMillis));
+
+        return new ProcessBuilder(cmd)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    // 用法：java dist.PartitionedSimulation <dataDir> <区域数> <起始帧> <结束帧>
+    // 同时运行单进程的 doStep 作为对照
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: PartitionedSimulation <dataDir> <numRegions> <stFrame> <edFrame>");
+            System.exit(1);
+        }
+
+        final String dataDir = args[0].endsWith(File.separator) ? args[0] : args[0] + File.separator;
+        final int numRegions = Integer.parseInt(args[1]);
+        final int stFrame = Integer.parseInt(args[2]);
+        final int edFrame = Integer.parseInt(args[3]);
+
+        try (RDScene rd = new RDScene(edFrame, dataDir, "", 1)) {
+            rd.setupScene();
+
+            final PartitionedSimulation ps = new PartitionedSimulation(RDScene.OriSim, numRegions);
+            if (new File(dataDir + "allTruePos.bin").exists())
+                ps.setTrajectoryFile(dataDir + "allTruePos.bin");
+
+            long t = System.nanoTime();
+            final double partitioned = ps.run(stFrame, edFrame);
+            System.out.printf("partitioned (%d regions): %.6f  %.1f ms%n", numRegions, partitioned, (System.nanoTime() - t) / 1e6);
+
+            t = System.nanoTime();
+            final double single = rd.defFeval(stFrame, edFrame);
+            System.out.printf("single process:           %.6f  %.1f ms%n", single, (System.nanoTime() - t) / 1e6);
+        }
+    }
+}
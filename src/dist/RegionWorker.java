@@ -0,0 +1,179 @@
+package dist;
+
+import app.RDScene;
+import rvo.Region;
+import rvo.Simulator;
+import utilPac.SparseMatrix;
+import utilPac.Trajectory;
+import utilPac.TrajectoryFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// 分区模拟的工作进程，由 PartitionedSimulation 启动，负责一个区域。
+// 用法：java dist.RegionWorker <协调者端口> <区域下标> <读取超时毫秒数，0 为不限>
+// 先连接协调者，报告自己监听的端口（供右侧区域连接），收到配置后与左右区域建立连接，
+// 每帧与相邻区域交换一条消息：[迁出个数][记录...][halo 个数][记录...]，模拟结束后把本区域的 agent 发回协调者
+public final class RegionWorker {
+    private final int index;
+    private final int timeoutMillis;
+    private Region region;
+    private double haloWidth;
+    private int stFrame, edFrame;
+
+    private DataInputStream leftIn, rightIn;
+    private DataOutputStream leftOut, rightOut;
+    // 向两侧的发送在后台进行，避免双方同时写满 socket 缓冲区而互相等待
+    private final ExecutorService senders = Executors.newFixedThreadPool(2);
+
+    private RegionWorker(int index, int timeoutMillis) {
+        this.index = index;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: RegionWorker <coordinatorPort> <index> <timeoutMillis>");
+            System.exit(1);
+        }
+
+        final RegionWorker worker = new RegionWorker(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        try {
+            worker.run(Integer.parseInt(args[0]));
+        } finally {
+            worker.senders.shutdownNow();
+        }
+    }
+
+    private void run(int coordinatorPort) throws IOException, InterruptedException, ExecutionException {
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        try (Socket control = new Socket(loopback, coordinatorPort);
+             ServerSocket peerServer = new ServerSocket(0, 1, loopback)) {
+            control.setSoTimeout(timeoutMillis);
+            peerServer.setSoTimeout(timeoutMillis);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(control.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+
+            out.writeInt(index);
+            out.writeInt(peerServer.getLocalPort());
+            out.flush();
+
+            final int leftPort = readConfig(in);
+            final boolean hasRight = in.readBoolean();
+
+            Socket left = null, right = null;
+            try {
+                if (leftPort >= 0) {
+                    left = new Socket(loopback, leftPort);
+                    left.setTcpNoDelay(true);
+                    left.setSoTimeout(timeoutMillis);
+                    leftIn = new DataInputStream(new BufferedInputStream(left.getInputStream()));
+                    leftOut = new DataOutputStream(new BufferedOutputStream(left.getOutputStream()));
+                }
+                if (hasRight) {
+                    right = peerServer.accept();
+                    right.setTcpNoDelay(true);
+                    right.setSoTimeout(timeoutMillis);
+                    rightIn = new DataInputStream(new BufferedInputStream(right.getInputStream()));
+                    rightOut = new DataOutputStream(new BufferedOutputStream(right.getOutputStream()));
+                }
+
+                for (int f = stFrame; f < edFrame; f++) {
+                    exchange(f);
+                    region.step(f);
+                }
+                region.dropHalo();
+            } finally {
+                if (left != null)
+                    left.close();
+                if (right != null)
+                    right.close();
+            }
+
+            region.writeOwned(out);
+            out.flush();
+        }
+    }
+
+    // 返回左侧区域的端口，没有左侧区域时为 -1
+    private int readConfig(DataInputStream in) throws IOException {
+        final double lo = in.readDouble();
+        final double hi = in.readDouble();
+        haloWidth = in.readDouble();
+        stFrame = in.readInt();
+        edFrame = in.readInt();
+        final String trajectoryFile = in.readUTF();
+        final int leftPort = in.readInt();
+
+        final Simulator sim = Region.readScene(in);
+        final Trajectory truePos = TrajectoryFile.map(trajectoryFile);
+        sim.setTruePos(truePos);
+
+        // doStep 从 RDScene 读取位置误差矩阵，Agent.calcDiff 不使用其中的值，全部为 0 即可
+        RDScene.allTruePosDiff = SparseMatrix.zeros(truePos.getNumFrames(), truePos.getNumAgents());
+
+        region = new Region(sim, lo, hi);
+        region.readOwned(in, in.readInt());
+        return leftPort;
+    }
+
+    // 第 frame 帧开始前与相邻区域交换迁出的 agent 和 halo
+    private void exchange(int frame) throws IOException, InterruptedException, ExecutionException {
+        region.dropHalo();
+        region.detachEmigrants();
+
+        final Future<?> sentLeft = leftOut != null ? senders.submit(message(leftOut, true, frame)) : null;
+        final Future<?> sentRight = rightOut != null ? senders.submit(message(rightOut, false, frame)) : null;
+
+        if (leftIn != null)
+            receive(leftIn);
+        if (rightIn != null)
+            receive(rightIn);
+
+        if (sentLeft != null)
+            sentLeft.get();
+        if (sentRight != null)
+            sentRight.get();
+    }
+
+    private Callable<Void> message(final DataOutputStream out, boolean left, int frame) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream msg = new DataOutputStream(bytes);
+        region.writeEmigrants(msg, left);
+        region.writeHalo(msg, left, frame, haloWidth);
+        msg.flush();
+
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                out.flush();
+                return null;
+            }
+        };
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        final DataInputStream msg = new DataInputStream(new ByteArrayInputStream(bytes));
+        region.readOwned(msg, msg.readInt());
+        region.readHalo(msg, msg.readInt());
+    }
+}
@@ -2,54 +2,37 @@ package rvo;
 
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 import org.apache.commons.math3.util.FastMath;
-import org.apache.commons.math3.util.Pair;
-
-import java.util.ArrayList;
-import java.util.List;
 
+// 状态都存放在 simRef.store 中，Agent 只是某个 slot 的视图
 public class Agent {
     private Simulator simRef;
+    final AgentStore store;
+    final int slot;
 
     int id = 0;
-    int maxNeighbors = 0;
-    double maxSpeed = 0.0;
-    double prefSpeed = 0.0;
-    double neighborDistance = 0.0;
-    double radius = 0.0;
-    double timeHorizonAgents = 0.0;
-    double timeHorizonObstacles = 0.0;
     int start, end;
 
     // 误差测量
     public int diff, goFrames;
 
-    Vector2D goal;
-    Vector2D position = Vector2D.ZERO;
-    Vector2D velocity = Vector2D.ZERO;
-    Vector2D newVelocity = Vector2D.ZERO;
-    Vector2D preferredVelocity = Vector2D.ZERO;
-
-    final List<Pair<Double, Agent>> agentNeighbors = new ArrayList<>();
-    final List<Pair<Double, Obstacle>> obstacleNeighbors = new ArrayList<>();
-    final List<Line> lines = new ArrayList<>();
+    // 近邻 agent 的 slot、近邻障碍物的下标，按距离升序
+    final NeighborBuffer agentNeighbors = new NeighborBuffer();
+    final NeighborBuffer obstacleNeighbors = new NeighborBuffer();
+    // 障碍物树查询用的栈
+    private int[] obstacleStack = new int[0];
+    // KdTree 叶子批量计算距离用的缓冲
+    double[] leafDistSq = new double[0];
 
     public Agent(Simulator sim) {
         this.simRef = sim;
+        this.store = sim.store;
+        this.slot = store.add();
     }
     public Agent(Agent other, Simulator newSim) {
-        goal = other.goal;
-        position = other.position;
-        velocity = other.velocity;
-        simRef = newSim;
+        this(newSim);
+        store.copyFrom(other.store, other.slot, slot);
 
         id = other.id;
-        maxNeighbors = other.maxNeighbors;
-        maxSpeed = other.maxSpeed;
-        prefSpeed = other.prefSpeed;
-        neighborDistance = other.neighborDistance;
-        radius = other.radius;
-        timeHorizonAgents = other.timeHorizonAgents;
-        timeHorizonObstacles = other.timeHorizonObstacles;
         start = other.start;
         end = other.end;
 
@@ -61,49 +44,63 @@ public class Agent {
         return id;
     }
     public Vector2D getPosition() {
-        return position;
+        return new Vector2D(store.posX[slot], store.posY[slot]);
     }
     public double getPrefSpeed() {
-        return prefSpeed;
+        return store.prefSpeed(slot);
     }
     public double getRadius() {
-        return radius;
+        return store.radius(slot);
     }
     public void setPosition(Vector2D position) {
-        this.position = position;
+        setPos(position.getX(), position.getY());
+        simRef.invalidateActive();
     }
 
     public boolean canShowUp(int step) {
         return start <= step;
     }
+    // [next, edFrame) 中最多还会被模拟的帧数；到达终点的 agent 不再移动，也不会再被模拟
+    int maxRemainingFrames(int next, int edFrame) {
+        if (reachedGoal())
+            return 0;
+        return Math.max(0, edFrame - Math.max(start, next));
+    }
+
     public boolean reachedGoal() {
-        return position.distance(goal) < 0.1;
+        final double dx = store.goalX[slot] - store.posX[slot];
+        final double dy = store.goalY[slot] - store.posY[slot];
+        return FastMath.sqrt(dx * dx + dy * dy) < 0.1;
     }
 
     public void setPara(double r, double neighborDist, double maxNeighbor, double timeHorizon, double timObst, double prefS) {
-        radius = r;
-        neighborDistance = neighborDist;
-        maxNeighbors = (int) maxNeighbor;
-        timeHorizonAgents = timeHorizon;
-        timeHorizonObstacles = timObst;
-        prefSpeed = prefS;
-        maxSpeed = prefSpeed * 2;
+        store.setPara(slot, r, neighborDist, maxNeighbor, timeHorizon, timObst, prefS);
+        store.maxSpeed[slot] = prefS * 2;
     }
 
     public void setPreferredVelocity() {
-        Vector2D prefV = goal.subtract(position).normalize();
-        double distanceToGoal = position.distance(goal);
+        final double dx = store.goalX[slot] - store.posX[slot];
+        final double dy = store.goalY[slot] - store.posY[slot];
+        final double distanceToGoal = FastMath.sqrt(dx * dx + dy * dy);
+        final double invDistance = 1 / distanceToGoal;
+        final double prefSpeed = store.prefSpeed(slot);
 
+        final double speed;
         if (distanceToGoal < prefSpeed * simRef.timeStep) {
-            preferredVelocity = prefV.scalarMultiply(distanceToGoal / simRef.timeStep);
+            speed = distanceToGoal / simRef.timeStep;
         } else {
-            preferredVelocity = prefV.scalarMultiply(prefSpeed);
+            speed = prefSpeed;
         }
+
+        store.prefVelX[slot] = speed * (invDistance * dx);
+        store.prefVelY[slot] = speed * (invDistance * dy);
     }
 
-    void calcDiff(Vector2D truePos, double truePosDiff) {
+    void calcDiff(double trueX, double trueY, double truePosDiff) {
 //        double t = truePos.distance(position) / truePosDiff;
-        double t = truePos.distance(position);
+        final double dx = store.posX[slot] - trueX;
+        final double dy = store.posY[slot] - trueY;
+        double t = FastMath.sqrt(dx * dx + dy * dy);
         diff += t;
         goFrames++;
     }
@@ -111,33 +108,59 @@ public class Agent {
     // 感知周围近邻
     void computeNeighbors() {
         obstacleNeighbors.clear();
-        final double range = timeHorizonObstacles * maxSpeed + radius;
-        simRef.kdTree.computeObstacleNeighbors(this, range * range);
+        final double range = store.timeHorizonObstacles(slot) * store.maxSpeed[slot] + store.radius(slot);
+        final ObstacleGrid obstacleGrid = simRef.obstacleGrid;
+
+        if (obstacleGrid != null && obstacleGrid.covers(range)) {
+            obstacleGrid.computeObstacleNeighbors(store.posX[slot], store.posY[slot], range * range, obstacleNeighbors);
+        } else {
+            final ObstacleTree obstacleTree = simRef.obstacleTree;
+            if (obstacleStack.length < obstacleTree.stackSize())
+                obstacleStack = new int[obstacleTree.stackSize()];
+            obstacleTree.computeObstacleNeighbors(store.posX[slot], store.posY[slot], range * range, obstacleNeighbors, obstacleStack);
+        }
 
-        agentNeighbors.clear();
+        agentNeighbors.reset(store.maxNeighbors(slot));
 
-        if (maxNeighbors > 0) {
-            simRef.kdTree.computeAgentNeighbors(this, neighborDistance * neighborDistance);
+        if (store.maxNeighbors(slot) > 0) {
+            final double neighborDistance = store.neighborDistance(slot);
+            simRef.neighborIndex.computeAgentNeighbors(this, neighborDistance * neighborDistance);
         }
     }
 
     // 决策新的速度
-    void computeNewVelocity() {
+    void computeNewVelocity(OrcaSolver solver) {
+        final OrcaSolver.Lines lines = solver.lines;
         lines.clear();
 
-        final double invTimeHorizonObstacle = 1.0 / timeHorizonObstacles;
+        final double posX = store.posX[slot];
+        final double posY = store.posY[slot];
+        final double velX = store.velX[slot];
+        final double velY = store.velY[slot];
+        final double radius = store.radius(slot);
+
+        final double invTimeHorizonObstacle = 1.0 / store.timeHorizonObstacles(slot);
 
-        for (final Pair<Double, Obstacle> obstacleNeighbor : obstacleNeighbors) {
-            Obstacle obstacle1 = obstacleNeighbor.getSecond();
-            Obstacle obstacle2 = obstacle1.next;
+        final ObstacleTree obstacles = simRef.obstacleTree;
+        final double[] pointX = obstacles.pointX;
+        final double[] pointY = obstacles.pointY;
+        final double[] directionX = obstacles.dirX;
+        final double[] directionY = obstacles.dirY;
+        final boolean[] convex = obstacles.convex;
 
-            final Vector2D relativePosition1 = obstacle1.point.subtract(position);
-            final Vector2D relativePosition2 = obstacle2.point.subtract(position);
+        for (int n = 0; n < obstacleNeighbors.size; n++) {
+            int obstacle1 = obstacleNeighbors.index[n];
+            int obstacle2 = obstacles.next[obstacle1];
+
+            final double relPos1X = pointX[obstacle1] - posX;
+            final double relPos1Y = pointY[obstacle1] - posY;
+            final double relPos2X = pointX[obstacle2] - posX;
+            final double relPos2Y = pointY[obstacle2] - posY;
 
             boolean alreadyCovered = false;
 
-            for (final Line orcaLine : lines) {
-                if (MathUtil.det(relativePosition1.scalarMultiply(invTimeHorizonObstacle).subtract(orcaLine.point), orcaLine.direction) - invTimeHorizonObstacle * radius >= -MathUtil.EPSILON && MathUtil.det(relativePosition2.scalarMultiply(invTimeHorizonObstacle).subtract(orcaLine.point), orcaLine.direction) - invTimeHorizonObstacle * radius >= -MathUtil.EPSILON) {
+            for (int i = 0; i < lines.size; i++) {
+                if (MathUtil.det(invTimeHorizonObstacle * relPos1X - lines.pointX[i], invTimeHorizonObstacle * relPos1Y - lines.pointY[i], lines.dirX[i], lines.dirY[i]) - invTimeHorizonObstacle * radius >= -MathUtil.EPSILON && MathUtil.det(invTimeHorizonObstacle * relPos2X - lines.pointX[i], invTimeHorizonObstacle * relPos2Y - lines.pointY[i], lines.dirX[i], lines.dirY[i]) - invTimeHorizonObstacle * radius >= -MathUtil.EPSILON) {
                     alreadyCovered = true;
 
                     break;
@@ -148,19 +171,22 @@ public class Agent {
                 continue;
             }
 
-            final double distanceSq1 = relativePosition1.getNormSq();
-            final double distanceSq2 = relativePosition2.getNormSq();
+            final double distanceSq1 = relPos1X * relPos1X + relPos1Y * relPos1Y;
+            final double distanceSq2 = relPos2X * relPos2X + relPos2Y * relPos2Y;
             final double radiusSq = radius * radius;
 
-            final Vector2D obstacleVector = obstacle2.point.subtract(obstacle1.point);
-            final double s = -relativePosition1.dotProduct(obstacleVector) / obstacleVector.getNormSq();
-            final double distanceSqLine = relativePosition1.add(s, obstacleVector).getNormSq();
+            final double obstacleVectorX = pointX[obstacle2] - pointX[obstacle1];
+            final double obstacleVectorY = pointY[obstacle2] - pointY[obstacle1];
+            final double s = -MathUtil.dot(relPos1X, relPos1Y, obstacleVectorX, obstacleVectorY) / (obstacleVectorX * obstacleVectorX + obstacleVectorY * obstacleVectorY);
+            final double lineX = relPos1X + s * obstacleVectorX;
+            final double lineY = relPos1Y + s * obstacleVectorY;
+            final double distanceSqLine = lineX * lineX + lineY * lineY;
 
             if (s < 0.0 && distanceSq1 <= radiusSq) {
                 // 为凸，且与左顶点碰撞
-                if (obstacle1.convex) {
-                    final Vector2D direction = new Vector2D(-relativePosition1.getY(), relativePosition1.getX()).normalize();
-                    lines.add(new Line(Vector2D.ZERO, direction));
+                if (convex[obstacle1]) {
+                    final double invNorm = 1 / FastMath.sqrt(relPos1Y * relPos1Y + relPos1X * relPos1X);
+                    lines.add(0.0, 0.0, invNorm * -relPos1Y, invNorm * relPos1X);
                 }
 
                 continue;
@@ -168,109 +194,133 @@ public class Agent {
 
             if (s > 1.0 && distanceSq2 <= radiusSq) {
                 // 为凸，且与右顶点碰撞
-                if (obstacle2.convex && MathUtil.det(relativePosition2, obstacle2.direction) >= 0.0) {
-                    final Vector2D direction = new Vector2D(-relativePosition2.getY(), relativePosition2.getX()).normalize();
-                    lines.add(new Line(Vector2D.ZERO, direction));
+                if (convex[obstacle2] && MathUtil.det(relPos2X, relPos2Y, directionX[obstacle2], directionY[obstacle2]) >= 0.0) {
+                    final double invNorm = 1 / FastMath.sqrt(relPos2Y * relPos2Y + relPos2X * relPos2X);
+                    lines.add(0.0, 0.0, invNorm * -relPos2Y, invNorm * relPos2X);
                 }
 
                 continue;
             }
 
             if (s >= 0.0 && s < 1.0 && distanceSqLine <= radiusSq) {
-                final Vector2D direction = obstacle1.direction.negate();
-                lines.add(new Line(Vector2D.ZERO, direction));
+                lines.add(0.0, 0.0, -directionX[obstacle1], -directionY[obstacle1]);
 
                 continue;
             }
 
-            Vector2D leftLegDirection;
-            Vector2D rightLegDirection;
+            double leftLegX, leftLegY;
+            double rightLegX, rightLegY;
 
             if (s < 0.0 && distanceSqLine <= radiusSq) {
-                if (!obstacle1.convex) {
+                if (!convex[obstacle1]) {
                     continue;
                 }
 
                 obstacle2 = obstacle1;
 
                 final double leg1 = FastMath.sqrt(distanceSq1 - radiusSq);
-                leftLegDirection = new Vector2D(relativePosition1.getX() * leg1 - relativePosition1.getY() * radius, relativePosition1.getX() * radius + relativePosition1.getY() * leg1).scalarMultiply(1.0 / distanceSq1);
-                rightLegDirection = new Vector2D(relativePosition1.getX() * leg1 + relativePosition1.getY() * radius, -relativePosition1.getX() * radius + relativePosition1.getY() * leg1).scalarMultiply(1.0 / distanceSq1);
+                final double invDistanceSq1 = 1.0 / distanceSq1;
+                leftLegX = invDistanceSq1 * (relPos1X * leg1 - relPos1Y * radius);
+                leftLegY = invDistanceSq1 * (relPos1X * radius + relPos1Y * leg1);
+                rightLegX = invDistanceSq1 * (relPos1X * leg1 + relPos1Y * radius);
+                rightLegY = invDistanceSq1 * (-relPos1X * radius + relPos1Y * leg1);
             } else if (s > 1.0 && distanceSqLine <= radiusSq) {
-                if (!obstacle2.convex) {
+                if (!convex[obstacle2]) {
                     continue;
                 }
 
                 obstacle1 = obstacle2;
 
                 final double leg2 = FastMath.sqrt(distanceSq2 - radiusSq);
-                leftLegDirection = new Vector2D(relativePosition2.getX() * leg2 - relativePosition2.getY() * radius, relativePosition2.getX() * radius + relativePosition2.getY() * leg2).scalarMultiply(1.0 / distanceSq2);
-                rightLegDirection = new Vector2D(relativePosition2.getX() * leg2 + relativePosition2.getY() * radius, -relativePosition2.getX() * radius + relativePosition2.getY() * leg2).scalarMultiply(1.0 / distanceSq2);
+                final double invDistanceSq2 = 1.0 / distanceSq2;
+                leftLegX = invDistanceSq2 * (relPos2X * leg2 - relPos2Y * radius);
+                leftLegY = invDistanceSq2 * (relPos2X * radius + relPos2Y * leg2);
+                rightLegX = invDistanceSq2 * (relPos2X * leg2 + relPos2Y * radius);
+                rightLegY = invDistanceSq2 * (-relPos2X * radius + relPos2Y * leg2);
             } else {
-                if (obstacle1.convex) {
+                if (convex[obstacle1]) {
                     final double leg1 = FastMath.sqrt(distanceSq1 - radiusSq);
-                    leftLegDirection = new Vector2D(relativePosition1.getX() * leg1 - relativePosition1.getY() * radius, relativePosition1.getX() * radius + relativePosition1.getY() * leg1).scalarMultiply(1.0 / distanceSq1);
+                    final double invDistanceSq1 = 1.0 / distanceSq1;
+                    leftLegX = invDistanceSq1 * (relPos1X * leg1 - relPos1Y * radius);
+                    leftLegY = invDistanceSq1 * (relPos1X * radius + relPos1Y * leg1);
                 } else {
-                    leftLegDirection = obstacle1.direction.negate();
+                    leftLegX = -directionX[obstacle1];
+                    leftLegY = -directionY[obstacle1];
                 }
 
-                if (obstacle2.convex) {
+                if (convex[obstacle2]) {
                     final double leg2 = FastMath.sqrt(distanceSq2 - radiusSq);
-                    rightLegDirection = new Vector2D(relativePosition2.getX() * leg2 + relativePosition2.getY() * radius, -relativePosition2.getX() * radius + relativePosition2.getY() * leg2).scalarMultiply(1.0 / distanceSq2);
+                    final double invDistanceSq2 = 1.0 / distanceSq2;
+                    rightLegX = invDistanceSq2 * (relPos2X * leg2 + relPos2Y * radius);
+                    rightLegY = invDistanceSq2 * (-relPos2X * radius + relPos2Y * leg2);
                 } else {
-                    rightLegDirection = obstacle1.direction;
+                    rightLegX = directionX[obstacle1];
+                    rightLegY = directionY[obstacle1];
                 }
             }
 
             boolean leftLegForeign = false;
             boolean rightLegForeign = false;
 
-            if (obstacle1.convex && MathUtil.det(leftLegDirection, obstacle1.previous.direction.negate()) >= 0.0) {
-                leftLegDirection = obstacle1.previous.direction.negate();
+            final double prevDirX = -directionX[obstacles.previous[obstacle1]];
+            final double prevDirY = -directionY[obstacles.previous[obstacle1]];
+            if (convex[obstacle1] && MathUtil.det(leftLegX, leftLegY, prevDirX, prevDirY) >= 0.0) {
+                leftLegX = prevDirX;
+                leftLegY = prevDirY;
                 leftLegForeign = true;
             }
 
-            if (obstacle2.convex && MathUtil.det(rightLegDirection, obstacle2.direction) <= 0.0) {
-                rightLegDirection = obstacle2.direction;
+            if (convex[obstacle2] && MathUtil.det(rightLegX, rightLegY, directionX[obstacle2], directionY[obstacle2]) <= 0.0) {
+                rightLegX = directionX[obstacle2];
+                rightLegY = directionY[obstacle2];
                 rightLegForeign = true;
             }
 
-            final Vector2D leftCutOff = obstacle1.point.subtract(position).scalarMultiply(invTimeHorizonObstacle);
-            final Vector2D rightCutOff = obstacle2.point.subtract(position).scalarMultiply(invTimeHorizonObstacle);
-            final Vector2D cutOffVector = rightCutOff.subtract(leftCutOff);
+            final double leftCutOffX = invTimeHorizonObstacle * (pointX[obstacle1] - posX);
+            final double leftCutOffY = invTimeHorizonObstacle * (pointY[obstacle1] - posY);
+            final double rightCutOffX = invTimeHorizonObstacle * (pointX[obstacle2] - posX);
+            final double rightCutOffY = invTimeHorizonObstacle * (pointY[obstacle2] - posY);
+            final double cutOffVectorX = rightCutOffX - leftCutOffX;
+            final double cutOffVectorY = rightCutOffY - leftCutOffY;
+
+            final double t = obstacle1 == obstacle2 ? 0.5 : MathUtil.dot(velX - leftCutOffX, velY - leftCutOffY, cutOffVectorX, cutOffVectorY) / (cutOffVectorX * cutOffVectorX + cutOffVectorY * cutOffVectorY);
+            final double tLeft = MathUtil.dot(velX - leftCutOffX, velY - leftCutOffY, leftLegX, leftLegY);
+            final double tRight = MathUtil.dot(velX - rightCutOffX, velY - rightCutOffY, rightLegX, rightLegY);
 
-            final double t = obstacle1 == obstacle2 ? 0.5 : velocity.subtract(leftCutOff).dotProduct(cutOffVector) / cutOffVector.getNormSq();
-            final double tLeft = velocity.subtract(leftCutOff).dotProduct(leftLegDirection);
-            final double tRight = velocity.subtract(rightCutOff).dotProduct(rightLegDirection);
+            final double radiusFactor = radius * invTimeHorizonObstacle;
 
             if (t < 0.0 && tLeft < 0.0 || obstacle1 == obstacle2 && tLeft < 0.0 && tRight < 0.0) {
-                final Vector2D unitW = velocity.subtract(leftCutOff).normalize();
+                final double wX = velX - leftCutOffX;
+                final double wY = velY - leftCutOffY;
+                final double invNorm = 1 / FastMath.sqrt(wX * wX + wY * wY);
+                final double unitWX = invNorm * wX;
+                final double unitWY = invNorm * wY;
 
-                final Vector2D direction = new Vector2D(unitW.getY(), -unitW.getX());
-                final Vector2D point = leftCutOff.add(radius * invTimeHorizonObstacle, unitW);
-                lines.add(new Line(point, direction));
+                lines.add(leftCutOffX + radiusFactor * unitWX, leftCutOffY + radiusFactor * unitWY, unitWY, -unitWX);
 
                 continue;
             }
 
             if (t > 1.0 && tRight < 0.0) {
-                final Vector2D unitW = velocity.subtract(rightCutOff).normalize();
+                final double wX = velX - rightCutOffX;
+                final double wY = velY - rightCutOffY;
+                final double invNorm = 1 / FastMath.sqrt(wX * wX + wY * wY);
+                final double unitWX = invNorm * wX;
+                final double unitWY = invNorm * wY;
 
-                final Vector2D direction = new Vector2D(unitW.getY(), -unitW.getX());
-                final Vector2D point = rightCutOff.add(radius * invTimeHorizonObstacle, unitW);
-                lines.add(new Line(point, direction));
+                lines.add(rightCutOffX + radiusFactor * unitWX, rightCutOffY + radiusFactor * unitWY, unitWY, -unitWX);
 
                 continue;
             }
 
-            final double distanceSqCutOff = t < 0.0 || t > 1.0 || obstacle1 == obstacle2 ? Double.POSITIVE_INFINITY : velocity.distanceSq(leftCutOff.add(cutOffVector.scalarMultiply(t)));
-            final double distanceSqLeft = tLeft < 0.0 ? Double.POSITIVE_INFINITY : velocity.distanceSq(leftCutOff.add(leftLegDirection.scalarMultiply(tLeft)));
-            final double distanceSqRight = tRight < 0.0 ? Double.POSITIVE_INFINITY : velocity.distanceSq(rightCutOff.add(rightLegDirection.scalarMultiply(tRight)));
+            final double distanceSqCutOff = t < 0.0 || t > 1.0 || obstacle1 == obstacle2 ? Double.POSITIVE_INFINITY : distanceSq(velX, velY, leftCutOffX + t * cutOffVectorX, leftCutOffY + t * cutOffVectorY);
+            final double distanceSqLeft = tLeft < 0.0 ? Double.POSITIVE_INFINITY : distanceSq(velX, velY, leftCutOffX + tLeft * leftLegX, leftCutOffY + tLeft * leftLegY);
+            final double distanceSqRight = tRight < 0.0 ? Double.POSITIVE_INFINITY : distanceSq(velX, velY, rightCutOffX + tRight * rightLegX, rightCutOffY + tRight * rightLegY);
 
             if (distanceSqCutOff <= distanceSqLeft && distanceSqCutOff <= distanceSqRight) {
-                final Vector2D direction = obstacle1.direction.negate();
-                final Vector2D point = leftCutOff.add(radius * invTimeHorizonObstacle, new Vector2D(-direction.getY(), direction.getX()));
-                lines.add(new Line(point, direction));
+                final double dirX = -directionX[obstacle1];
+                final double dirY = -directionY[obstacle1];
+                lines.add(leftCutOffX + radiusFactor * -dirY, leftCutOffY + radiusFactor * dirX, dirX, dirY);
 
                 continue;
             }
@@ -280,8 +330,7 @@ public class Agent {
                     continue;
                 }
 
-                final Vector2D point = leftCutOff.add(radius * invTimeHorizonObstacle, new Vector2D(-leftLegDirection.getY(), leftLegDirection.getX()));
-                lines.add(new Line(point, leftLegDirection));
+                lines.add(leftCutOffX + radiusFactor * -leftLegY, leftCutOffY + radiusFactor * leftLegX, leftLegX, leftLegY);
 
                 continue;
             }
@@ -290,254 +339,82 @@ public class Agent {
                 continue;
             }
 
-            final Vector2D direction = rightLegDirection.negate();
-            final Vector2D point = rightCutOff.add(radius * invTimeHorizonObstacle, new Vector2D(-direction.getY(), direction.getX()));
-            lines.add(new Line(point, direction));
+            final double dirX = -rightLegX;
+            final double dirY = -rightLegY;
+            lines.add(rightCutOffX + radiusFactor * -dirY, rightCutOffY + radiusFactor * dirX, dirX, dirY);
         }
 
-        final int numObstacleLines = lines.size();
-
-        final double invTimeHorizon = 1.0 / timeHorizonAgents;
+        final int numObstacleLines = lines.size;
 
-        for (final Pair<Double, Agent> agentNeighbor : agentNeighbors) {
-            final Agent other = agentNeighbor.getSecond();
+        final double invTimeHorizon = 1.0 / store.timeHorizonAgents(slot);
 
-            final Vector2D relativePosition = other.position.subtract(position);
-            final Vector2D relativeVelocity = velocity.subtract(other.velocity);
-            final double distanceSq = relativePosition.getNormSq();
-            final double combinedRadius = radius + other.radius;
-            final double combinedRadiusSq = combinedRadius * combinedRadius;
+        // 收集近邻的相对状态，由 Kernels 一次算出所有近邻的约束
+        final OrcaSolver.NeighborBatch batch = solver.batch;
+        final int numNeighbors = agentNeighbors.size;
+        batch.ensureCapacity(numNeighbors);
 
-            final Vector2D direction;
-            final Vector2D u;
-
-            if (distanceSq > combinedRadiusSq) {
-                final Vector2D w = relativeVelocity.subtract(invTimeHorizon, relativePosition);
-
-                final double wLengthSq = w.getNormSq();
-                final double dotProduct1 = w.dotProduct(relativePosition);
-
-                if (dotProduct1 < 0.0 && dotProduct1 * dotProduct1 > combinedRadiusSq * wLengthSq) {
-                    final double wLength = FastMath.sqrt(wLengthSq);
-                    final Vector2D unitW = w.scalarMultiply(1.0 / wLength);
-
-                    direction = new Vector2D(unitW.getY(), -unitW.getX());
-                    u = unitW.scalarMultiply(combinedRadius * invTimeHorizon - wLength);
-                } else {
-                    final double leg = FastMath.sqrt(distanceSq - combinedRadiusSq);
-
-                    if (MathUtil.det(relativePosition, w) > 0.0) {
-                        direction = new Vector2D(relativePosition.getX() * leg - relativePosition.getY() * combinedRadius, relativePosition.getX() * combinedRadius + relativePosition.getY() * leg).scalarMultiply(1.0 / distanceSq);
-                    } else {
-                        direction = new Vector2D(relativePosition.getX() * leg + relativePosition.getY() * combinedRadius, -relativePosition.getX() * combinedRadius + relativePosition.getY() * leg).scalarMultiply(-1.0 / distanceSq);
-                    }
-
-                    final double dotProduct2 = relativeVelocity.dotProduct(direction);
-                    u = direction.scalarMultiply(dotProduct2).subtract(relativeVelocity);
-                }
-            } else {
-                final double invTimeStep = 1.0 / simRef.timeStep;
-                final Vector2D w = relativeVelocity.subtract(invTimeStep, relativePosition);
-
-                final double wLength = w.getNorm();
-                final Vector2D unitW = w.scalarMultiply(1.0 / wLength);
-
-                direction = new Vector2D(unitW.getY(), -unitW.getX());
-                u = unitW.scalarMultiply(combinedRadius * invTimeStep - wLength);
-            }
+        for (int n = 0; n < numNeighbors; n++) {
+            final int other = agentNeighbors.index[n];
 
-            final Vector2D point = velocity.add(0.5, u);
-            lines.add(new Line(point, direction));
+            batch.relPosX[n] = store.posX[other] - posX;
+            batch.relPosY[n] = store.posY[other] - posY;
+            batch.relVelX[n] = velX - store.velX[other];
+            batch.relVelY[n] = velY - store.velY[other];
+            batch.combinedRadius[n] = radius + store.radius(other);
         }
 
-        final int lineFail = linearProgram2(lines, preferredVelocity, false);
+        Kernels.INSTANCE.agentLines(batch, numNeighbors, velX, velY, invTimeHorizon, 1.0 / simRef.timeStep, lines);
 
-        if (lineFail < lines.size()) {
-            linearProgram3(numObstacleLines, lineFail);
-        }
-    }
-
-    double insertAgentNeighbor(Agent agent, double rangeSq) {
-        if (this != agent) {
-            final double distSq = position.distanceSq(agent.position);
-
-            if (distSq < rangeSq) {
-                if (agentNeighbors.size() < maxNeighbors) {
-                    agentNeighbors.add(new Pair<>(distSq, agent));
-                }
-
-                int i = agentNeighbors.size() - 1;
+        solver.solve(store.prefVelX[slot], store.prefVelY[slot], store.maxSpeed[slot], numObstacleLines);
 
-                while (i != 0 && distSq < agentNeighbors.get(i - 1).getFirst()) {
-                    agentNeighbors.set(i, agentNeighbors.get(i - 1));
-                    i--;
-                }
+        store.newVelX[slot] = solver.resultX;
+        store.newVelY[slot] = solver.resultY;
+    }
 
-                agentNeighbors.set(i, new Pair<>(distSq, agent));
+    private static double distanceSq(double x1, double y1, double x2, double y2) {
+        final double dx = x2 - x1;
+        final double dy = y2 - y1;
+        return dx * dx + dy * dy;
+    }
 
-                if (agentNeighbors.size() == maxNeighbors) {
-                    rangeSq = agentNeighbors.get(agentNeighbors.size() - 1).getFirst();
-                }
-            }
+    double insertAgentNeighbor(int other, double rangeSq) {
+        if (other != slot) {
+            final double dx = store.posX[other] - store.posX[slot];
+            final double dy = store.posY[other] - store.posY[slot];
+            rangeSq = insertAgentNeighbor(other, dx * dx + dy * dy, rangeSq);
         }
 
         return rangeSq;
     }
 
-    void insertObstacleNeighbor(Obstacle obstacle, double rangeSq) {
-        final Obstacle nextObstacle = obstacle.next;
-
-        final double r = position.subtract(obstacle.point).dotProduct(nextObstacle.point.subtract(obstacle.point)) / nextObstacle.point.distanceSq(obstacle.point);
-        final double distSq;
-
-        if (r < 0.0) {
-            distSq = position.distanceSq(obstacle.point);
-        } else if (r > 1.0) {
-            distSq = position.distanceSq(nextObstacle.point);
-        } else {
-            distSq = position.distanceSq(obstacle.point.add(nextObstacle.point.subtract(obstacle.point).scalarMultiply(r)));
-        }
-
+    // 距离已算好的版本，other 不能是自己
+    double insertAgentNeighbor(int other, double distSq, double rangeSq) {
         if (distSq < rangeSq) {
-            obstacleNeighbors.add(new Pair<>(distSq, obstacle));
-
-            int i = obstacleNeighbors.size() - 1;
+            agentNeighbors.insert(distSq, other);
 
-            while (i != 0 && distSq < obstacleNeighbors.get(i - 1).getFirst()) {
-                obstacleNeighbors.set(i, obstacleNeighbors.get(i - 1));
-                i--;
+            if (agentNeighbors.isFull()) {
+                rangeSq = agentNeighbors.last();
             }
-
-            obstacleNeighbors.set(i, new Pair<>(distSq, obstacle));
         }
-    }
-
-    void update() {
-        velocity = newVelocity;
-        position = position.add(simRef.timeStep, velocity);
-    }
-
 
-    void setPos(Vector2D newPos) {
-        position = newPos;
+        return rangeSq;
     }
 
-    private boolean linearProgram1(List<Line> lines, int lineNo, Vector2D optimizationVelocity, boolean optimizeDirection) {
-        final double dotProduct = lines.get(lineNo).point.dotProduct(lines.get(lineNo).direction);
-        final double discriminant = dotProduct * dotProduct + maxSpeed * maxSpeed - lines.get(lineNo).point.getNormSq();
-
-        if (discriminant < 0.0) {
-            return false;
-        }
-
-        final double sqrtDiscriminant = FastMath.sqrt(discriminant);
-        double tLeft = -sqrtDiscriminant - dotProduct;
-        double tRight = sqrtDiscriminant - dotProduct;
-
-        for (int i = 0; i < lineNo; i++) {
-            final double denominator = MathUtil.det(lines.get(lineNo).direction, lines.get(i).direction);
-            final double numerator = MathUtil.det(lines.get(i).direction, lines.get(lineNo).point.subtract(lines.get(i).point));
-
-            if (FastMath.abs(denominator) <= MathUtil.EPSILON) {
-                if (numerator < 0.0) {
-                    return false;
-                }
-
-                continue;
-            }
-
-            final double t = numerator / denominator;
-
-            if (denominator >= 0.0) {
-                tRight = FastMath.min(tRight, t);
-            } else {
-                tLeft = FastMath.max(tLeft, t);
-            }
-
-            if (tLeft > tRight) {
-                return false;
-            }
-        }
-
-        if (optimizeDirection) {
-            if (optimizationVelocity.dotProduct(lines.get(lineNo).direction) > 0.0) {
-                newVelocity = lines.get(lineNo).point.add(tRight, lines.get(lineNo).direction);
-            } else {
-                newVelocity = lines.get(lineNo).point.add(tLeft, lines.get(lineNo).direction);
-            }
-        } else {
-            final double t = lines.get(lineNo).direction.dotProduct(optimizationVelocity.subtract(lines.get(lineNo).point));
-
-            if (t < tLeft) {
-                newVelocity = lines.get(lineNo).point.add(tLeft, lines.get(lineNo).direction);
-            } else if (t > tRight) {
-                newVelocity = lines.get(lineNo).point.add(tRight, lines.get(lineNo).direction);
-            } else {
-                newVelocity = lines.get(lineNo).point.add(t, lines.get(lineNo).direction);
-            }
-        }
-
-        return true;
+    void update() {
+        store.velX[slot] = store.newVelX[slot];
+        store.velY[slot] = store.newVelY[slot];
+        store.posX[slot] = store.posX[slot] + simRef.timeStep * store.velX[slot];
+        store.posY[slot] = store.posY[slot] + simRef.timeStep * store.velY[slot];
     }
 
-    private int linearProgram2(List<Line> lines, Vector2D optimizationVelocity, boolean optimizeDirection) {
-        if (optimizeDirection) {
-            newVelocity = optimizationVelocity.scalarMultiply(maxSpeed);
-        } else if (optimizationVelocity.getNormSq() > maxSpeed * maxSpeed) {
-            newVelocity = optimizationVelocity.normalize().scalarMultiply(maxSpeed);
-        } else {
-            newVelocity = optimizationVelocity;
-        }
-
-        for (int lineNo = 0; lineNo < lines.size(); lineNo++) {
-            if (MathUtil.det(lines.get(lineNo).direction, lines.get(lineNo).point.subtract(newVelocity)) > 0.0) {
-                final Vector2D tempResult = newVelocity;
-                if (!linearProgram1(lines, lineNo, optimizationVelocity, optimizeDirection)) {
-                    newVelocity = tempResult;
-
-                    return lineNo;
-                }
-            }
-        }
 
-        return lines.size();
+    void setPos(double x, double y) {
+        store.posX[slot] = x;
+        store.posY[slot] = y;
     }
 
-    private void linearProgram3(int numObstacleLines, int beginLine) {
-        double distance = 0.0;
-
-        for (int i = beginLine; i < lines.size(); i++) {
-            if (MathUtil.det(lines.get(i).direction, lines.get(i).point.subtract(newVelocity)) > distance) {
-                final List<Line> projectedLines = new ArrayList<>(numObstacleLines);
-                for (int j = 0; j < numObstacleLines; j++) {
-                    projectedLines.add(lines.get(j));
-                }
-
-                for (int j = numObstacleLines; j < i; j++) {
-                    final double determinant = MathUtil.det(lines.get(i).direction, lines.get(j).direction);
-                    final Vector2D point;
-
-                    if (FastMath.abs(determinant) <= MathUtil.EPSILON) {
-                        if (lines.get(i).direction.dotProduct(lines.get(j).direction) > 0.0) {
-                            continue;
-                        }
-
-                        point = lines.get(i).point.add(lines.get(j).point).scalarMultiply(0.5);
-                    } else {
-                        point = lines.get(i).point.add(lines.get(i).direction.scalarMultiply(MathUtil.det(lines.get(j).direction, lines.get(i).point.subtract(lines.get(j).point)) / determinant));
-                    }
-
-                    final Vector2D direction = lines.get(j).direction.subtract(lines.get(i).direction).normalize();
-                    projectedLines.add(new Line(point, direction));
-                }
-
-                final Vector2D tempResult = newVelocity;
-                if (linearProgram2(projectedLines, new Vector2D(-lines.get(i).direction.getY(), lines.get(i).direction.getX()), true) < projectedLines.size()) {
-                    newVelocity = tempResult;
-                }
-
-                distance = MathUtil.det(lines.get(i).direction, lines.get(i).point.subtract(newVelocity));
-            }
-        }
+    void setVel(double x, double y) {
+        store.velX[slot] = x;
+        store.velY[slot] = y;
     }
 }
@@ -0,0 +1,131 @@
+package rvo;
+
+import java.util.Arrays;
+
+// 按列存储的 agent 状态，下标为 agent 的 slot
+final class AgentStore {
+    // 标定参数的排列与 Simulator.getAllPara 一致，每个 agent 6 个
+    static final int NUM_PARA = 6;
+    static final int RADIUS = 0;
+    static final int NEIGHBOR_DIST = 1;
+    static final int MAX_NEIGHBORS = 2;
+    static final int TIME_HORIZON = 3;
+    static final int TIME_HORIZON_OBST = 4;
+    static final int PREF_SPEED = 5;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    int size = 0;
+
+    double[] posX, posY;
+    double[] velX, velY;
+    double[] newVelX, newVelY;
+    double[] prefVelX, prefVelY;
+    double[] goalX, goalY;
+    double[] maxSpeed;
+    double[] para;
+    // slot 0 的参数在 para 中的起始下标，bindPara 之后 para 可能指向调用者的数组
+    int paraBase = 0;
+    // 自有的参数数组；绑定期间写参数时先把绑定的内容复制回来（写时复制），调用者的数组不会被修改
+    private double[] ownPara;
+
+    AgentStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    AgentStore(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    int capacity() {
+        return posX.length;
+    }
+
+    int add() {
+        ownPara();
+        if (size == capacity())
+            grow(2 * size);
+        return size++;
+    }
+
+    private void allocate(int capacity) {
+        posX = new double[capacity];
+        posY = new double[capacity];
+        velX = new double[capacity];
+        velY = new double[capacity];
+        newVelX = new double[capacity];
+        newVelY = new double[capacity];
+        prefVelX = new double[capacity];
+        prefVelY = new double[capacity];
+        goalX = new double[capacity];
+        goalY = new double[capacity];
+        maxSpeed = new double[capacity];
+        para = ownPara = new double[capacity * NUM_PARA];
+    }
+
+    private void grow(int capacity) {
+        posX = Arrays.copyOf(posX, capacity);
+        posY = Arrays.copyOf(posY, capacity);
+        velX = Arrays.copyOf(velX, capacity);
+        velY = Arrays.copyOf(velY, capacity);
+        newVelX = Arrays.copyOf(newVelX, capacity);
+        newVelY = Arrays.copyOf(newVelY, capacity);
+        prefVelX = Arrays.copyOf(prefVelX, capacity);
+        prefVelY = Arrays.copyOf(prefVelY, capacity);
+        goalX = Arrays.copyOf(goalX, capacity);
+        goalY = Arrays.copyOf(goalY, capacity);
+        maxSpeed = Arrays.copyOf(maxSpeed, capacity);
+        para = ownPara = Arrays.copyOf(para, capacity * NUM_PARA);
+    }
+
+    int paraIndex(int slot) { return paraBase + slot * NUM_PARA; }
+
+    double radius(int slot) { return para[paraIndex(slot) + RADIUS]; }
+    double neighborDistance(int slot) { return para[paraIndex(slot) + NEIGHBOR_DIST]; }
+    // 绑定的参数没有取整，这里取整后与 setPara 的结果相同
+    int maxNeighbors(int slot) { return (int) para[paraIndex(slot) + MAX_NEIGHBORS]; }
+    double timeHorizonAgents(int slot) { return para[paraIndex(slot) + TIME_HORIZON]; }
+    double timeHorizonObstacles(int slot) { return para[paraIndex(slot) + TIME_HORIZON_OBST]; }
+    double prefSpeed(int slot) { return para[paraIndex(slot) + PREF_SPEED]; }
+
+    // 以 block[offset ..] 直接作为所有 slot 的参数，不复制；绑定期间调用者不能修改这一段
+    void bindPara(double[] block, int offset) {
+        if (offset < 0 || block.length - offset < size * NUM_PARA)
+            throw new IllegalArgumentException("expected " + size * NUM_PARA + " parameters from offset " + offset + ", got " + (block.length - offset));
+        para = block;
+        paraBase = offset;
+    }
+
+    // 写参数之前调用：解除绑定，绑定的内容复制到自有数组
+    void ownPara() {
+        if (para != ownPara) {
+            System.arraycopy(para, paraBase, ownPara, 0, size * NUM_PARA);
+            para = ownPara;
+            paraBase = 0;
+        }
+    }
+
+    void setPara(int slot, double r, double neighborDist, double maxNeighbor, double timeHorizon, double timObst, double prefS) {
+        ownPara();
+        int st = slot * NUM_PARA;
+        para[st + RADIUS] = r;
+        para[st + NEIGHBOR_DIST] = neighborDist;
+        para[st + MAX_NEIGHBORS] = (int) maxNeighbor;
+        para[st + TIME_HORIZON] = timeHorizon;
+        para[st + TIME_HORIZON_OBST] = timObst;
+        para[st + PREF_SPEED] = prefS;
+    }
+
+    // 把 other 中某个 slot 的静态属性（目标、参数）和当前状态复制到本 store 的 slot
+    void copyFrom(AgentStore other, int otherSlot, int slot) {
+        posX[slot] = other.posX[otherSlot];
+        posY[slot] = other.posY[otherSlot];
+        velX[slot] = other.velX[otherSlot];
+        velY[slot] = other.velY[otherSlot];
+        goalX[slot] = other.goalX[otherSlot];
+        goalY[slot] = other.goalY[otherSlot];
+        maxSpeed[slot] = other.maxSpeed[otherSlot];
+        ownPara();
+        System.arraycopy(other.para, other.paraIndex(otherSlot), para, slot * NUM_PARA, NUM_PARA);
+    }
+}
@@ -0,0 +1,24 @@
+package rvo;
+
+// 一次评估的结果；aborted 为 true 时提前终止，score 是最终误差的下界（不小于截断值）
+public final class EvalResult {
+    public final double score;
+    public final boolean aborted;
+    // 实际模拟的帧数
+    public final int frames;
+
+    EvalResult(double score, boolean aborted, int frames) {
+        this.score = score;
+        this.aborted = aborted;
+        this.frames = frames;
+    }
+
+    public double getScore() { return score; }
+    public boolean isAborted() { return aborted; }
+    public int getFrames() { return frames; }
+
+    @Override
+    public String toString() {
+        return (aborted ? ">=" : "") + score + " (" + frames + " frames)";
+    }
+}
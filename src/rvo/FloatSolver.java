@@ -0,0 +1,247 @@
+package rvo;
+
+import java.util.Arrays;
+
+// OrcaSolver 的单精度版本，另外带有 FloatSimulator 逐个 agent 查询近邻用的缓冲区。
+// 每个线程持有一个，求解过程不分配对象
+final class FloatSolver {
+    static final float EPSILON = (float) MathUtil.EPSILON;
+
+    // 以 (点, 方向) 表示的有向直线，按列存储
+    static final class Lines {
+        float[] pointX = new float[16];
+        float[] pointY = new float[16];
+        float[] dirX = new float[16];
+        float[] dirY = new float[16];
+        int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(float px, float py, float dx, float dy) {
+            if (size == pointX.length) {
+                final int capacity = 2 * size;
+                pointX = Arrays.copyOf(pointX, capacity);
+                pointY = Arrays.copyOf(pointY, capacity);
+                dirX = Arrays.copyOf(dirX, capacity);
+                dirY = Arrays.copyOf(dirY, capacity);
+            }
+
+            pointX[size] = px;
+            pointY[size] = py;
+            dirX[size] = dx;
+            dirY[size] = dy;
+            size++;
+        }
+
+        void copyPrefix(Lines other, int n) {
+            size = 0;
+            for (int i = 0; i < n; i++)
+                add(other.pointX[i], other.pointY[i], other.dirX[i], other.dirY[i]);
+        }
+    }
+
+    final Lines lines = new Lines();
+    private final Lines projectedLines = new Lines();
+
+    // 当前 agent 的近邻 agent（slot + 距离平方，按距离升序，最多 maxNeighbors 个）
+    float[] neighborDistSq = new float[8];
+    int[] neighbors = new int[8];
+    int numNeighbors = 0;
+    private int maxNeighbors = 0;
+
+    // 障碍物近邻由共享的 ObstacleTree / ObstacleGrid 查询
+    final NeighborBuffer obstacleNeighbors = new NeighborBuffer();
+    int[] obstacleStack = new int[0];
+
+    float resultX, resultY;
+    private float maxSpeed;
+
+    void resetNeighbors(int maxNeighbors) {
+        numNeighbors = 0;
+        this.maxNeighbors = maxNeighbors;
+        if (neighbors.length < maxNeighbors) {
+            neighbors = new int[maxNeighbors];
+            neighborDistSq = new float[maxNeighbors];
+        }
+    }
+
+    // 插入排序，已满时替换最远的一个；返回新的查询半径平方
+    float insertNeighbor(int other, float distSq, float rangeSq) {
+        if (!(distSq < rangeSq))
+            return rangeSq;
+
+        if (numNeighbors < maxNeighbors)
+            numNeighbors++;
+
+        int i = numNeighbors - 1;
+        while (i != 0 && distSq < neighborDistSq[i - 1]) {
+            neighborDistSq[i] = neighborDistSq[i - 1];
+            neighbors[i] = neighbors[i - 1];
+            i--;
+        }
+        neighborDistSq[i] = distSq;
+        neighbors[i] = other;
+
+        return numNeighbors == maxNeighbors ? neighborDistSq[numNeighbors - 1] : rangeSq;
+    }
+
+    // 以 prefVel 为目标在 lines 上求解，前 numObstacleLines 条为障碍物约束
+    void solve(float prefVelX, float prefVelY, float maxSpeed, int numObstacleLines) {
+        this.maxSpeed = maxSpeed;
+
+        final int lineFail = linearProgram2(lines, prefVelX, prefVelY, false);
+
+        if (lineFail < lines.size) {
+            linearProgram3(numObstacleLines, lineFail);
+        }
+    }
+
+    static float det(float x1, float y1, float x2, float y2) {
+        return x1 * y2 - y1 * x2;
+    }
+
+    static float dot(float x1, float y1, float x2, float y2) {
+        return x1 * x2 + y1 * y2;
+    }
+
+    static float sqrt(float x) {
+        return (float) Math.sqrt(x);
+    }
+
+    private boolean linearProgram1(Lines lines, int lineNo, float optX, float optY, boolean optimizeDirection) {
+        final float pointX = lines.pointX[lineNo];
+        final float pointY = lines.pointY[lineNo];
+        final float dirX = lines.dirX[lineNo];
+        final float dirY = lines.dirY[lineNo];
+
+        final float dotProduct = dot(pointX, pointY, dirX, dirY);
+        final float discriminant = dotProduct * dotProduct + maxSpeed * maxSpeed - (pointX * pointX + pointY * pointY);
+
+        if (discriminant < 0.0f) {
+            return false;
+        }
+
+        final float sqrtDiscriminant = sqrt(discriminant);
+        float tLeft = -sqrtDiscriminant - dotProduct;
+        float tRight = sqrtDiscriminant - dotProduct;
+
+        for (int i = 0; i < lineNo; i++) {
+            final float denominator = det(dirX, dirY, lines.dirX[i], lines.dirY[i]);
+            final float numerator = det(lines.dirX[i], lines.dirY[i], pointX - lines.pointX[i], pointY - lines.pointY[i]);
+
+            if (Math.abs(denominator) <= EPSILON) {
+                if (numerator < 0.0f) {
+                    return false;
+                }
+
+                continue;
+            }
+
+            final float t = numerator / denominator;
+
+            if (denominator >= 0.0f) {
+                tRight = Math.min(tRight, t);
+            } else {
+                tLeft = Math.max(tLeft, t);
+            }
+
+            if (tLeft > tRight) {
+                return false;
+            }
+        }
+
+        final float t;
+        if (optimizeDirection) {
+            t = dot(optX, optY, dirX, dirY) > 0.0f ? tRight : tLeft;
+        } else {
+            final float tOpt = dot(dirX, dirY, optX - pointX, optY - pointY);
+            t = tOpt < tLeft ? tLeft : tOpt > tRight ? tRight : tOpt;
+        }
+
+        resultX = pointX + t * dirX;
+        resultY = pointY + t * dirY;
+
+        return true;
+    }
+
+    private int linearProgram2(Lines lines, float optX, float optY, boolean optimizeDirection) {
+        if (optimizeDirection) {
+            resultX = maxSpeed * optX;
+            resultY = maxSpeed * optY;
+        } else if (optX * optX + optY * optY > maxSpeed * maxSpeed) {
+            final float invNorm = 1 / sqrt(optX * optX + optY * optY);
+            resultX = maxSpeed * (invNorm * optX);
+            resultY = maxSpeed * (invNorm * optY);
+        } else {
+            resultX = optX;
+            resultY = optY;
+        }
+
+        for (int lineNo = 0; lineNo < lines.size; lineNo++) {
+            if (det(lines.dirX[lineNo], lines.dirY[lineNo], lines.pointX[lineNo] - resultX, lines.pointY[lineNo] - resultY) > 0.0f) {
+                final float tempX = resultX;
+                final float tempY = resultY;
+                if (!linearProgram1(lines, lineNo, optX, optY, optimizeDirection)) {
+                    resultX = tempX;
+                    resultY = tempY;
+
+                    return lineNo;
+                }
+            }
+        }
+
+        return lines.size;
+    }
+
+    private void linearProgram3(int numObstacleLines, int beginLine) {
+        float distance = 0.0f;
+
+        // 障碍物约束在投影过程中保持不变，只复制一次
+        projectedLines.copyPrefix(lines, numObstacleLines);
+
+        for (int i = beginLine; i < lines.size; i++) {
+            final float pointX = lines.pointX[i];
+            final float pointY = lines.pointY[i];
+            final float dirX = lines.dirX[i];
+            final float dirY = lines.dirY[i];
+
+            if (det(dirX, dirY, pointX - resultX, pointY - resultY) > distance) {
+                projectedLines.size = numObstacleLines;
+
+                for (int j = numObstacleLines; j < i; j++) {
+                    final float determinant = det(dirX, dirY, lines.dirX[j], lines.dirY[j]);
+                    final float px, py;
+
+                    if (Math.abs(determinant) <= EPSILON) {
+                        if (dot(dirX, dirY, lines.dirX[j], lines.dirY[j]) > 0.0f) {
+                            continue;
+                        }
+
+                        px = 0.5f * (pointX + lines.pointX[j]);
+                        py = 0.5f * (pointY + lines.pointY[j]);
+                    } else {
+                        final float s = det(lines.dirX[j], lines.dirY[j], pointX - lines.pointX[j], pointY - lines.pointY[j]) / determinant;
+                        px = pointX + s * dirX;
+                        py = pointY + s * dirY;
+                    }
+
+                    final float dx = lines.dirX[j] - dirX;
+                    final float dy = lines.dirY[j] - dirY;
+                    final float invNorm = 1 / sqrt(dx * dx + dy * dy);
+                    projectedLines.add(px, py, invNorm * dx, invNorm * dy);
+                }
+
+                final float tempX = resultX;
+                final float tempY = resultY;
+                if (linearProgram2(projectedLines, -dirY, dirX, true) < projectedLines.size) {
+                    resultX = tempX;
+                    resultY = tempY;
+                }
+
+                distance = det(dirX, dirY, pointX - resultX, pointY - resultY);
+            }
+        }
+    }
+}
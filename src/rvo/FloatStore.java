@@ -0,0 +1,63 @@
+package rvo;
+
+// FloatSimulator 的单精度按列存储，下标与源 Simulator 的 slot 相同，容量在构造时确定。
+// 参数的排列与 AgentStore 一致
+final class FloatStore {
+    final int size;
+
+    final float[] posX, posY;
+    final float[] velX, velY;
+    final float[] newVelX, newVelY;
+    final float[] prefVelX, prefVelY;
+    final float[] goalX, goalY;
+    final float[] maxSpeed;
+    final float[] para;
+
+    FloatStore(int size) {
+        this.size = size;
+        posX = new float[size];
+        posY = new float[size];
+        velX = new float[size];
+        velY = new float[size];
+        newVelX = new float[size];
+        newVelY = new float[size];
+        prefVelX = new float[size];
+        prefVelY = new float[size];
+        goalX = new float[size];
+        goalY = new float[size];
+        maxSpeed = new float[size];
+        para = new float[size * AgentStore.NUM_PARA];
+    }
+
+    float radius(int slot) { return para[slot * AgentStore.NUM_PARA + AgentStore.RADIUS]; }
+    float neighborDistance(int slot) { return para[slot * AgentStore.NUM_PARA + AgentStore.NEIGHBOR_DIST]; }
+    int maxNeighbors(int slot) { return (int) para[slot * AgentStore.NUM_PARA + AgentStore.MAX_NEIGHBORS]; }
+    float timeHorizonAgents(int slot) { return para[slot * AgentStore.NUM_PARA + AgentStore.TIME_HORIZON]; }
+    float timeHorizonObstacles(int slot) { return para[slot * AgentStore.NUM_PARA + AgentStore.TIME_HORIZON_OBST]; }
+    float prefSpeed(int slot) { return para[slot * AgentStore.NUM_PARA + AgentStore.PREF_SPEED]; }
+
+    void setPara(int slot, double r, double neighborDist, double maxNeighbor, double timeHorizon, double timObst, double prefS) {
+        int st = slot * AgentStore.NUM_PARA;
+        para[st + AgentStore.RADIUS] = (float) r;
+        para[st + AgentStore.NEIGHBOR_DIST] = (float) neighborDist;
+        para[st + AgentStore.MAX_NEIGHBORS] = (int) maxNeighbor;
+        para[st + AgentStore.TIME_HORIZON] = (float) timeHorizon;
+        para[st + AgentStore.TIME_HORIZON_OBST] = (float) timObst;
+        para[st + AgentStore.PREF_SPEED] = (float) prefS;
+    }
+
+    // 从双精度 store 复制静态属性和当前状态
+    void copyFrom(AgentStore other, int slot) {
+        posX[slot] = (float) other.posX[slot];
+        posY[slot] = (float) other.posY[slot];
+        velX[slot] = (float) other.velX[slot];
+        velY[slot] = (float) other.velY[slot];
+        goalX[slot] = (float) other.goalX[slot];
+        goalY[slot] = (float) other.goalY[slot];
+        maxSpeed[slot] = (float) other.maxSpeed[slot];
+        final int st = slot * AgentStore.NUM_PARA;
+        final int otherSt = other.paraIndex(slot);
+        for (int i = 0; i < AgentStore.NUM_PARA; i++)
+            para[st + i] = (float) other.para[otherSt + i];
+    }
+}
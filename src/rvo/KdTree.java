@@ -1,295 +1,375 @@
 package rvo;
 
-import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 import org.apache.commons.math3.util.FastMath;
-import org.apache.commons.math3.util.Pair;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
-class KdTree {
+class KdTree implements NeighborIndex {
     private Simulator simRef;
 
     KdTree(Simulator sim) {
         this.simRef = sim;
     }
 
-    private static class AgentTreeNode {
-        int begin = 0;
-        int end = 0;
-        int left = 0;
-        int right = 0;
-        double maxX = 0.0;
-        double maxY = 0.0;
-        double minX = 0.0;
-        double minY = 0.0;
-    }
-
-    private static class ObstacleTreeNode {
-        Obstacle obstacle = null;
-        ObstacleTreeNode left = null;
-        ObstacleTreeNode right = null;
-    }
-
     private static final int MAX_LEAF_SIZE = 10;
+    // 两个子节点的包围盒在 x、y 上的重叠都超过父节点边长的这个比例时，重新划分该子树
+    private static final double MAX_OVERLAP_RATIO = 0.2;
+    // 一帧内增删的 agent 超过这个比例时整体重建
+    private static final double MAX_CHANGE_RATIO = 0.25;
+    // 节点池中废弃节点过多时整体重建
+    private static final int MAX_NODES_PER_AGENT = 4;
+
+    // 按树的顺序排列的 agent slot，每个节点对应其中连续的一段
+    private int[] agents = new int[0];
+    private int[] agentsTmp = new int[0];
+    private int numAgents = 0;
+    // 与 agents 同序的位置副本，叶子内的距离可连续批量计算
+    private double[] treeX = new double[0];
+    private double[] treeY = new double[0];
+
+    // 节点按列存储，容量只增不减；叶子节点的 left 为 -1
+    private int[] nodeBegin = new int[0];
+    private int[] nodeEnd = new int[0];
+    private int[] nodeLeft = new int[0];
+    private int[] nodeRight = new int[0];
+    private double[] nodeMinX = new double[0];
+    private double[] nodeMinY = new double[0];
+    private double[] nodeMaxX = new double[0];
+    private double[] nodeMaxY = new double[0];
+    private int numNodes = 0;
+
+    // 以 slot 为下标：是否在树中、本帧是否存活
+    private boolean[] inTree = new boolean[0];
+    private int[] activeStamp = new int[0];
+    private int stamp = 0;
+
+    // 增量更新时新加入的 agent，按所在叶子串成链表
+    private int[] addHead = new int[0];
+    private int[] addNext = new int[0];
+    private int[] addSlot = new int[0];
+
+
+
+    @Override
+    public void build() {
+        final List<Agent> active = simRef.agents;
+        final int n = active.size();
+
+        ensureSlotCapacity(simRef.store.capacity());
+        stamp++;
+
+        int added = 0;
+        for (int i = 0; i < n; i++) {
+            final int slot = active.get(i).slot;
+            activeStamp[slot] = stamp;
+            if (!inTree[slot])
+                added++;
+        }
 
-    private Agent[] agents = null;
-    private AgentTreeNode[] agentTree = null;
-    private ObstacleTreeNode obstacleTree = null;
+        int removed = 0;
+        for (int i = 0; i < numAgents; i++) {
+            if (activeStamp[agents[i]] != stamp)
+                removed++;
+        }
 
+        if (numAgents == 0 || n == 0 || added + removed > MAX_CHANGE_RATIO * n || numNodes > MAX_NODES_PER_AGENT * n) {
+            rebuildAgentTree(active);
+        } else {
+            if (added + removed > 0)
+                updateMembers(active, added);
+            refitAgentTree(0);
+        }
 
-    void buildAgentTree() {
-        if (agents == null || agents.length != simRef.agents.size()) {
-            agents = new Agent[simRef.agents.size()];
+        final double[] posX = simRef.store.posX;
+        final double[] posY = simRef.store.posY;
+        for (int i = 0; i < numAgents; i++) {
+            treeX[i] = posX[agents[i]];
+            treeY[i] = posY[agents[i]];
+        }
+    }
 
-            for (int agentNo = 0; agentNo < agents.length; agentNo++) {
-                agents[agentNo] = simRef.agents.get(agentNo);
-            }
+    // 从头构建整棵树
+    private void rebuildAgentTree(List<Agent> active) {
+        for (int i = 0; i < numAgents; i++)
+            inTree[agents[i]] = false;
 
-            agentTree = new AgentTreeNode[2 * agents.length];
+        numAgents = active.size();
+        ensureAgentCapacity(numAgents);
 
-            for (int nodeNo = 0; nodeNo < agentTree.length; nodeNo++) {
-                agentTree[nodeNo] = new AgentTreeNode();
-            }
+        for (int agentNo = 0; agentNo < numAgents; agentNo++) {
+            agents[agentNo] = active.get(agentNo).slot;
+            inTree[agents[agentNo]] = true;
         }
 
-        if (agents.length != 0) {
-            buildAgentTreeRecursive(0, agents.length, 0);
+        numNodes = 0;
+
+        if (numAgents != 0) {
+            buildAgentTreeRecursive(0, numAgents, allocNode());
         }
     }
 
-    void buildObstacleTree() {
-        obstacleTree = new ObstacleTreeNode();
+    // 去掉离开的 agent，把新 agent 放入离它最近的叶子，保持其余 agent 在树中的顺序
+    private void updateMembers(List<Agent> active, int added) {
+        if (addSlot.length < added) {
+            addSlot = new int[2 * added];
+            addNext = new int[2 * added];
+        }
+        Arrays.fill(addHead, 0, numNodes, -1);
 
-        final List<Obstacle> obstacles = new ArrayList<>(simRef.obstacles.size());
+        int k = 0;
+        for (int i = 0; i < active.size(); i++) {
+            final int slot = active.get(i).slot;
+            if (inTree[slot])
+                continue;
 
-        for (int obstacleNo = 0; obstacleNo < simRef.obstacles.size(); obstacleNo++) {
-            obstacles.add(simRef.obstacles.get(obstacleNo));
+            final int leaf = findLeaf(simRef.store.posX[slot], simRef.store.posY[slot]);
+            addSlot[k] = slot;
+            addNext[k] = addHead[leaf];
+            addHead[leaf] = k;
+            inTree[slot] = true;
+            k++;
         }
 
-        obstacleTree = buildObstacleTreeRecursive(obstacles);
+        ensureAgentCapacity(active.size());
+        numAgents = compact(0, 0);
+
+        final int[] t = agents;
+        agents = agentsTmp;
+        agentsTmp = t;
     }
 
-    void computeAgentNeighbors(Agent agent, double rangeSq) {
-        queryAgentTreeRecursive(agent, rangeSq, 0);
+    private int findLeaf(double x, double y) {
+        int node = 0;
+        while (nodeLeft[node] >= 0) {
+            final int left = nodeLeft[node];
+            final int right = nodeRight[node];
+            node = boxDistanceSq(left, x, y) <= boxDistanceSq(right, x, y) ? left : right;
+        }
+        return node;
     }
 
+    // 把节点 node 的 agent 写入 agentsTmp 的 pos 处，返回写完后的位置
+    private int compact(int node, int pos) {
+        final int oldBegin = nodeBegin[node];
+        final int oldEnd = nodeEnd[node];
+        nodeBegin[node] = pos;
+
+        if (nodeLeft[node] < 0) {
+            for (int i = oldBegin; i < oldEnd; i++) {
+                final int slot = agents[i];
+                if (activeStamp[slot] == stamp)
+                    agentsTmp[pos++] = slot;
+                else
+                    inTree[slot] = false;
+            }
 
-    void computeObstacleNeighbors(Agent agent, double rangeSq) {
-        queryObstacleTreeRecursive(agent, rangeSq, obstacleTree);
-    }
+            for (int k = addHead[node]; k >= 0; k = addNext[k])
+                agentsTmp[pos++] = addSlot[k];
+        } else {
+            pos = compact(nodeLeft[node], pos);
+            pos = compact(nodeRight[node], pos);
+        }
 
-    boolean queryVisibility(Vector2D q1, Vector2D q2, double radius) {
-        return queryVisibilityRecursive(q1, q2, radius, obstacleTree);
+        nodeEnd[node] = pos;
+        return pos;
     }
 
-    private void buildAgentTreeRecursive(int begin, int end, int node) {
-        agentTree[node].begin = begin;
-        agentTree[node].end = end;
-        agentTree[node].maxX = agents[begin].position.getX();
-        agentTree[node].maxY = agents[begin].position.getY();
-        agentTree[node].minX = agentTree[node].maxX;
-        agentTree[node].minY = agentTree[node].maxY;
+    // 自底向上更新包围盒，叶子过大或子树划分质量变差时重新划分
+    private void refitAgentTree(int node) {
+        final int begin = nodeBegin[node];
+        final int end = nodeEnd[node];
 
+        if (end - begin <= MAX_LEAF_SIZE) {
+            nodeLeft[node] = -1;
+            computeBounds(node, begin, end);
+            return;
+        }
 
-        for (int i = begin + 1; i < end; i++) {
-            agentTree[node].maxX = FastMath.max(agentTree[node].maxX, agents[i].position.getX());
-            agentTree[node].minX = FastMath.min(agentTree[node].minX, agents[i].position.getX());
-            agentTree[node].maxY = FastMath.max(agentTree[node].maxY, agents[i].position.getY());
-            agentTree[node].minY = FastMath.min(agentTree[node].minY, agents[i].position.getY());
+        if (nodeLeft[node] < 0) {
+            buildAgentTreeRecursive(begin, end, node);
+            return;
         }
 
-        if (end - begin > MAX_LEAF_SIZE) {
-            final boolean isVertical = agentTree[node].maxX - agentTree[node].minX > agentTree[node].maxY - agentTree[node].minY;
-            final double splitValue = 0.5 * (isVertical ? agentTree[node].maxX + agentTree[node].minX : agentTree[node].maxY + agentTree[node].minY);
+        final int left = nodeLeft[node];
+        final int right = nodeRight[node];
+        refitAgentTree(left);
+        refitAgentTree(right);
 
-            int left = begin;
-            int right = end;
+        if (nodeEnd[left] == nodeBegin[left] || nodeEnd[right] == nodeBegin[right]) {
+            buildAgentTreeRecursive(begin, end, node);
+            return;
+        }
 
-            while (left < right) {
-                while (left < right && (isVertical ? agents[left].position.getX() : agents[left].position.getY()) < splitValue) {
-                    left++;
-                }
+        nodeMinX[node] = FastMath.min(nodeMinX[left], nodeMinX[right]);
+        nodeMinY[node] = FastMath.min(nodeMinY[left], nodeMinY[right]);
+        nodeMaxX[node] = FastMath.max(nodeMaxX[left], nodeMaxX[right]);
+        nodeMaxY[node] = FastMath.max(nodeMaxY[left], nodeMaxY[right]);
 
-                while (right > left && (isVertical ? agents[right - 1].position.getX() : agents[right - 1].position.getY()) >= splitValue) {
-                    right--;
-                }
+        final double overlapX = FastMath.min(nodeMaxX[left], nodeMaxX[right]) - FastMath.max(nodeMinX[left], nodeMinX[right]);
+        final double overlapY = FastMath.min(nodeMaxY[left], nodeMaxY[right]) - FastMath.max(nodeMinY[left], nodeMinY[right]);
 
-                if (left < right) {
-                    final Agent tempAgent = agents[left];
-                    agents[left] = agents[right - 1];
-                    agents[right - 1] = tempAgent;
-                    left++;
-                    right--;
-                }
-            }
+        if (overlapX > MAX_OVERLAP_RATIO * (nodeMaxX[node] - nodeMinX[node]) && overlapY > MAX_OVERLAP_RATIO * (nodeMaxY[node] - nodeMinY[node])) {
+            buildAgentTreeRecursive(begin, end, node);
+        }
+    }
 
-            if (left == begin) {
-                left++;
-            }
+    private void computeBounds(int node, int begin, int end) {
+        final double[] posX = simRef.store.posX;
+        final double[] posY = simRef.store.posY;
+
+        if (begin == end) {
+            // 空叶子，查询时距离为无穷大
+            nodeMinX[node] = Double.POSITIVE_INFINITY;
+            nodeMinY[node] = Double.POSITIVE_INFINITY;
+            nodeMaxX[node] = Double.NEGATIVE_INFINITY;
+            nodeMaxY[node] = Double.NEGATIVE_INFINITY;
+            return;
+        }
 
-            agentTree[node].left = node + 1;
-            agentTree[node].right = node + 2 * (left - begin);
+        nodeMaxX[node] = posX[agents[begin]];
+        nodeMaxY[node] = posY[agents[begin]];
+        nodeMinX[node] = nodeMaxX[node];
+        nodeMinY[node] = nodeMaxY[node];
 
-            buildAgentTreeRecursive(begin, left, agentTree[node].left);
-            buildAgentTreeRecursive(left, end, agentTree[node].right);
+        for (int i = begin + 1; i < end; i++) {
+            nodeMaxX[node] = FastMath.max(nodeMaxX[node], posX[agents[i]]);
+            nodeMinX[node] = FastMath.min(nodeMinX[node], posX[agents[i]]);
+            nodeMaxY[node] = FastMath.max(nodeMaxY[node], posY[agents[i]]);
+            nodeMinY[node] = FastMath.min(nodeMinY[node], posY[agents[i]]);
         }
     }
 
-    private ObstacleTreeNode buildObstacleTreeRecursive(List<Obstacle> obstacles) {
-        if (obstacles.isEmpty()) {
-            return null;
+    private int allocNode() {
+        if (numNodes == nodeBegin.length) {
+            final int capacity = Math.max(2 * numNodes, 16);
+            nodeBegin = Arrays.copyOf(nodeBegin, capacity);
+            nodeEnd = Arrays.copyOf(nodeEnd, capacity);
+            nodeLeft = Arrays.copyOf(nodeLeft, capacity);
+            nodeRight = Arrays.copyOf(nodeRight, capacity);
+            nodeMinX = Arrays.copyOf(nodeMinX, capacity);
+            nodeMinY = Arrays.copyOf(nodeMinY, capacity);
+            nodeMaxX = Arrays.copyOf(nodeMaxX, capacity);
+            nodeMaxY = Arrays.copyOf(nodeMaxY, capacity);
+            addHead = Arrays.copyOf(addHead, capacity);
         }
+        return numNodes++;
+    }
 
-        final ObstacleTreeNode node = new ObstacleTreeNode();
+    private void ensureAgentCapacity(int n) {
+        if (agents.length < n) {
+            final int capacity = Math.max(2 * agents.length, n);
+            agents = Arrays.copyOf(agents, capacity);
+            agentsTmp = new int[capacity];
+            treeX = new double[capacity];
+            treeY = new double[capacity];
+        }
+    }
 
-        int optimalSplit = 0;
-        int minLeft = obstacles.size();
-        int minRight = obstacles.size();
+    private void ensureSlotCapacity(int n) {
+        if (inTree.length < n) {
+            inTree = Arrays.copyOf(inTree, n);
+            activeStamp = Arrays.copyOf(activeStamp, n);
+        }
+    }
 
-        for (int i = 0; i < obstacles.size(); i++) {
-            int leftSize = 0;
-            int rightSize = 0;
+    @Override
+    public void computeAgentNeighbors(Agent agent, double rangeSq) {
+        queryAgentTreeRecursive(agent, rangeSq, 0);
+    }
 
-            final Obstacle obstacleI1 = obstacles.get(i);
-            Obstacle obstacleI2 = obstacleI1.next;
+    private void buildAgentTreeRecursive(int begin, int end, int node) {
+        final double[] posX = simRef.store.posX;
+        final double[] posY = simRef.store.posY;
 
-            for (int j = 0; j < obstacles.size(); j++) {
-                if (i == j) {
-                    continue;
-                }
+        nodeBegin[node] = begin;
+        nodeEnd[node] = end;
+        nodeLeft[node] = -1;
+        computeBounds(node, begin, end);
 
-                final Obstacle obstacleJ1 = obstacles.get(j);
-                final Obstacle obstacleJ2 = obstacleJ1.next;
+        if (end - begin > MAX_LEAF_SIZE) {
+            final boolean isVertical = nodeMaxX[node] - nodeMinX[node] > nodeMaxY[node] - nodeMinY[node];
+            final double splitValue = 0.5 * (isVertical ? nodeMaxX[node] + nodeMinX[node] : nodeMaxY[node] + nodeMinY[node]);
 
-                final double j1LeftOfI = MathUtil.leftOf(obstacleI1.point, obstacleI2.point, obstacleJ1.point);
-                final double j2LeftOfI = MathUtil.leftOf(obstacleI1.point, obstacleI2.point, obstacleJ2.point);
+            int left = begin;
+            int right = end;
 
-                if (j1LeftOfI >= -MathUtil.EPSILON && j2LeftOfI >= -MathUtil.EPSILON) {
-                    leftSize++;
-                } else if (j1LeftOfI <= MathUtil.EPSILON && j2LeftOfI <= MathUtil.EPSILON) {
-                    rightSize++;
-                } else {
-                    leftSize++;
-                    rightSize++;
+            while (left < right) {
+                while (left < right && (isVertical ? posX[agents[left]] : posY[agents[left]]) < splitValue) {
+                    left++;
                 }
 
-                final Pair<Integer, Integer> pair1 = new Pair<>(FastMath.max(leftSize, rightSize), FastMath.min(leftSize, rightSize));
-                final Pair<Integer, Integer> pair2 = new Pair<>(FastMath.max(minLeft, minRight), FastMath.min(minLeft, minRight));
-
-                if (!(pair1.getFirst() < pair2.getFirst() || pair1.getFirst() <= pair2.getFirst() && pair1.getSecond() < pair2.getSecond())) {
-                    break;
+                while (right > left && (isVertical ? posX[agents[right - 1]] : posY[agents[right - 1]]) >= splitValue) {
+                    right--;
                 }
-            }
 
-            final Pair<Integer, Integer> pair1 = new Pair<>(FastMath.max(leftSize, rightSize), FastMath.min(leftSize, rightSize));
-            final Pair<Integer, Integer> pair2 = new Pair<>(FastMath.max(minLeft, minRight), FastMath.min(minLeft, minRight));
-
-            if (pair1.getFirst() < pair2.getFirst() || pair1.getFirst() <= pair2.getFirst() && pair1.getSecond() < pair2.getSecond()) {
-                minLeft = leftSize;
-                minRight = rightSize;
-                optimalSplit = i;
+                if (left < right) {
+                    final int tempAgent = agents[left];
+                    agents[left] = agents[right - 1];
+                    agents[right - 1] = tempAgent;
+                    left++;
+                    right--;
+                }
             }
-        }
-
-        final List<Obstacle> leftObstacles = new ArrayList<>(minLeft);
-
-        for (int n = 0; n < minLeft; n++) {
-            leftObstacles.add(null);
-        }
-
-        final List<Obstacle> rightObstacles = new ArrayList<>(minRight);
 
-        for (int n = 0; n < minRight; n++) {
-            rightObstacles.add(null);
-        }
-
-        int leftCounter = 0;
-        int rightCounter = 0;
-
-        final Obstacle obstacleI1 = obstacles.get(optimalSplit);
-        final Obstacle obstacleI2 = obstacleI1.next;
-
-        for (int j = 0; j < obstacles.size(); j++) {
-            if (optimalSplit == j) {
-                continue;
+            if (left == begin) {
+                left++;
             }
 
-            final Obstacle obstacleJ1 = obstacles.get(j);
-            final Obstacle obstacleJ2 = obstacleJ1.next;
-
-            final double j1LeftOfI = MathUtil.leftOf(obstacleI1.point, obstacleI2.point, obstacleJ1.point);
-            final double j2LeftOfI = MathUtil.leftOf(obstacleI1.point, obstacleI2.point, obstacleJ2.point);
-
-            if (j1LeftOfI >= -MathUtil.EPSILON && j2LeftOfI >= -MathUtil.EPSILON) {
-                leftObstacles.set(leftCounter++, obstacles.get(j));
-            } else if (j1LeftOfI <= MathUtil.EPSILON && j2LeftOfI <= MathUtil.EPSILON) {
-                rightObstacles.set(rightCounter++, obstacles.get(j));
-            } else {
-                final double t = MathUtil.det(obstacleI2.point.subtract(obstacleI1.point), obstacleJ1.point.subtract(obstacleI1.point)) / MathUtil.det(obstacleI2.point.subtract(obstacleI1.point), obstacleJ1.point.subtract(obstacleJ2.point));
-
-                final Vector2D splitPoint = obstacleJ1.point.add(obstacleJ2.point.subtract(obstacleJ1.point).scalarMultiply(t));
-
-                final Obstacle newObstacle = new Obstacle();
-                newObstacle.point = splitPoint;
-                newObstacle.previous = obstacleJ1;
-                newObstacle.next = obstacleJ2;
-                newObstacle.convex = true;
-                newObstacle.direction = obstacleJ1.direction;
-
-                newObstacle.id = simRef.obstacles.size();
-
-                simRef.obstacles.add(newObstacle);
-
-                obstacleJ1.next = newObstacle;
-                obstacleJ2.previous = newObstacle;
+            final int leftNode = allocNode();
+            final int rightNode = allocNode();
+            nodeLeft[node] = leftNode;
+            nodeRight[node] = rightNode;
 
-                if (j1LeftOfI > 0.0) {
-                    leftObstacles.set(leftCounter++, obstacleJ1);
-                    rightObstacles.set(rightCounter++, newObstacle);
-                } else {
-                    rightObstacles.set(rightCounter++, obstacleJ1);
-                    leftObstacles.set(leftCounter++, newObstacle);
-                }
-            }
+            buildAgentTreeRecursive(begin, left, leftNode);
+            buildAgentTreeRecursive(left, end, rightNode);
         }
-
-        node.obstacle = obstacleI1;
-        node.left = buildObstacleTreeRecursive(leftObstacles);
-        node.right = buildObstacleTreeRecursive(rightObstacles);
-
-        return node;
     }
 
-
     private static double sqr(double d) {
         return d * d;
     }
 
+    private double boxDistanceSq(int node, double x, double y) {
+        return sqr(FastMath.max(0.0, nodeMinX[node] - x)) + sqr(FastMath.max(0.0, x - nodeMaxX[node])) + sqr(FastMath.max(0.0, nodeMinY[node] - y)) + sqr(FastMath.max(0.0, y - nodeMaxY[node]));
+    }
+
     private double queryAgentTreeRecursive(Agent agent, double rangeSq, int node) {
-        if (agentTree[node].end - agentTree[node].begin <= MAX_LEAF_SIZE) {
-            for (int agentNo = agentTree[node].begin; agentNo < agentTree[node].end; agentNo++) {
-                rangeSq = agent.insertAgentNeighbor(agents[agentNo], rangeSq);
+        final double x = simRef.store.posX[agent.slot];
+        final double y = simRef.store.posY[agent.slot];
+
+        if (nodeEnd[node] - nodeBegin[node] <= MAX_LEAF_SIZE) {
+            final int begin = nodeBegin[node];
+            final int end = nodeEnd[node];
+            if (agent.leafDistSq.length < MAX_LEAF_SIZE)
+                agent.leafDistSq = new double[MAX_LEAF_SIZE];
+
+            // 先批量算出叶子内所有距离，再按顺序插入
+            final double[] distSq = agent.leafDistSq;
+            Kernels.INSTANCE.distanceSq(treeX, treeY, begin, end, x, y, distSq);
+            for (int agentNo = begin; agentNo < end; agentNo++) {
+                if (agents[agentNo] != agent.slot)
+                    rangeSq = agent.insertAgentNeighbor(agents[agentNo], distSq[agentNo - begin], rangeSq);
             }
         } else {
-            final double distanceSqLeft = sqr(FastMath.max(0.0, agentTree[agentTree[node].left].minX - agent.position.getX())) + sqr(FastMath.max(0.0, agent.position.getX() - agentTree[agentTree[node].left].maxX)) + sqr(FastMath.max(0.0, agentTree[agentTree[node].left].minY - agent.position.getY())) + sqr(FastMath.max(0.0, agent.position.getY() - agentTree[agentTree[node].left].maxY));
-            final double distanceSqRight = sqr(FastMath.max(0.0, agentTree[agentTree[node].right].minX - agent.position.getX())) + sqr(FastMath.max(0.0, agent.position.getX() - agentTree[agentTree[node].right].maxX)) + sqr(FastMath.max(0.0, agentTree[agentTree[node].right].minY - agent.position.getY())) + sqr(FastMath.max(0.0, agent.position.getY() - agentTree[agentTree[node].right].maxY));
+            final double distanceSqLeft = boxDistanceSq(nodeLeft[node], x, y);
+            final double distanceSqRight = boxDistanceSq(nodeRight[node], x, y);
 
             if (distanceSqLeft < distanceSqRight) {
                 if (distanceSqLeft < rangeSq) {
-                    rangeSq = queryAgentTreeRecursive(agent, rangeSq, agentTree[node].left);
+                    rangeSq = queryAgentTreeRecursive(agent, rangeSq, nodeLeft[node]);
 
                     if (distanceSqRight < rangeSq) {
-                        rangeSq = queryAgentTreeRecursive(agent, rangeSq, agentTree[node].right);
+                        rangeSq = queryAgentTreeRecursive(agent, rangeSq, nodeRight[node]);
                     }
                 }
             } else {
                 if (distanceSqRight < rangeSq) {
-                    rangeSq = queryAgentTreeRecursive(agent, rangeSq, agentTree[node].right);
+                    rangeSq = queryAgentTreeRecursive(agent, rangeSq, nodeRight[node]);
 
                     if (distanceSqLeft < rangeSq) {
-                        rangeSq = queryAgentTreeRecursive(agent, rangeSq, agentTree[node].left);
+                        rangeSq = queryAgentTreeRecursive(agent, rangeSq, nodeLeft[node]);
                     }
                 }
             }
@@ -298,56 +378,4 @@ class KdTree {
 
         return rangeSq;
     }
-
-    private static void queryObstacleTreeRecursive(Agent agent, double rangeSq, ObstacleTreeNode node) {
-        if (node != null) {
-            final Obstacle obstacle1 = node.obstacle;
-            final Obstacle obstacle2 = obstacle1.next;
-
-            final double agentLeftOfLine = MathUtil.leftOf(obstacle1.point, obstacle2.point, agent.position);
-
-            queryObstacleTreeRecursive(agent, rangeSq, agentLeftOfLine >= 0.0 ? node.left : node.right);
-
-            final double distanceSqLine = agentLeftOfLine * agentLeftOfLine / obstacle2.point.distanceSq(obstacle1.point);
-
-            if (distanceSqLine < rangeSq) {
-                if (agentLeftOfLine < 0.0) {
-                    agent.insertObstacleNeighbor(node.obstacle, rangeSq);
-                }
-
-                queryObstacleTreeRecursive(agent, rangeSq, agentLeftOfLine >= 0.0 ? node.right : node.left);
-            }
-        }
-    }
-
-    private static boolean queryVisibilityRecursive(Vector2D q1, Vector2D q2, double radius, ObstacleTreeNode node) {
-        if (node == null) {
-            return true;
-        }
-
-        final Obstacle obstacle1 = node.obstacle;
-        final Obstacle obstacle2 = obstacle1.next;
-
-        final double q1LeftOfI = MathUtil.leftOf(obstacle1.point, obstacle2.point, q1);
-        final double q2LeftOfI = MathUtil.leftOf(obstacle1.point, obstacle2.point, q2);
-        final double invLengthI = 1.0 / obstacle2.point.distanceSq(obstacle1.point);
-
-        if (q1LeftOfI >= 0.0 && q2LeftOfI >= 0.0) {
-            return queryVisibilityRecursive(q1, q2, radius, node.left) && (q1LeftOfI * q1LeftOfI * invLengthI >= radius * radius && q2LeftOfI * q2LeftOfI * invLengthI >= radius * radius || queryVisibilityRecursive(q1, q2, radius, node.right));
-        }
-
-        if (q1LeftOfI <= 0.0 && q2LeftOfI <= 0.0) {
-            return queryVisibilityRecursive(q1, q2, radius, node.right) && (q1LeftOfI * q1LeftOfI * invLengthI >= radius * radius && q2LeftOfI * q2LeftOfI * invLengthI >= radius * radius || queryVisibilityRecursive(q1, q2, radius, node.left));
-        }
-
-        if (q1LeftOfI >= 0.0 && q2LeftOfI <= 0.0) {
-            return queryVisibilityRecursive(q1, q2, radius, node.left) && queryVisibilityRecursive(q1, q2, radius, node.right);
-        }
-
-        final double point1LeftOfQ = MathUtil.leftOf(q1, q2, obstacle1.point);
-        final double point2LeftOfQ = MathUtil.leftOf(q1, q2, obstacle2.point);
-        final double invLengthQ = 1.0 / q2.distanceSq(q1);
-
-        return point1LeftOfQ * point2LeftOfQ >= 0.0 && point1LeftOfQ * point1LeftOfQ * invLengthQ > radius * radius && point2LeftOfQ * point2LeftOfQ * invLengthQ > radius * radius && queryVisibilityRecursive(q1, q2, radius, node.left) && queryVisibilityRecursive(q1, q2, radius, node.right);
-    }
 }
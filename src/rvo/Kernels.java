@@ -0,0 +1,119 @@
+package rvo;
+
+import org.apache.commons.math3.util.FastMath;
+
+// 近邻查询和 ORCA 约束的批量计算内核，本类为标量实现。
+// 以 -Drvo.vector=true 启动且加载了 jdk.incubator.vector 模块（--add-modules jdk.incubator.vector）时改用 SIMD 实现 VectorKernels。
+// JDK 17 的孵化版本中部分向量操作没有内建实现，SIMD 版会逐帧分配对象且不比标量快（见 bench 中的 VelocityBench），因此默认关闭。
+// 两种实现的结果逐位相同
+class Kernels {
+    static final Kernels INSTANCE = select();
+
+    // 实现的名称，用于日志
+    String name() {
+        return "scalar";
+    }
+
+    // out[i - begin] 为 (xs[i], ys[i]) 到 (x, y) 距离的平方，i 属于 [begin, end)
+    void distanceSq(double[] xs, double[] ys, int begin, int end, double x, double y, double[] out) {
+        for (int i = begin; i < end; i++) {
+            final double dx = xs[i] - x;
+            final double dy = ys[i] - y;
+            out[i - begin] = dx * dx + dy * dy;
+        }
+    }
+
+    // 对 batch 中的 n 个近邻计算 agent 间的 ORCA 约束，按近邻顺序追加到 lines
+    void agentLines(OrcaSolver.NeighborBatch batch, int n, double velX, double velY, double invTimeHorizon, double invTimeStep, OrcaSolver.Lines lines) {
+        final int base = lines.size;
+        lines.ensureCapacity(base + n);
+        agentLines(batch, 0, n, velX, velY, invTimeHorizon, invTimeStep, lines, base);
+        lines.size = base + n;
+    }
+
+    // 计算 batch 中 [from, to) 的约束，写入 lines 的 base + i 处
+    static void agentLines(OrcaSolver.NeighborBatch batch, int from, int to, double velX, double velY, double invTimeHorizon, double invTimeStep, OrcaSolver.Lines lines, int base) {
+        for (int i = from; i < to; i++) {
+            final double relPosX = batch.relPosX[i];
+            final double relPosY = batch.relPosY[i];
+            final double relVelX = batch.relVelX[i];
+            final double relVelY = batch.relVelY[i];
+            final double distanceSq = relPosX * relPosX + relPosY * relPosY;
+            final double combinedRadius = batch.combinedRadius[i];
+            final double combinedRadiusSq = combinedRadius * combinedRadius;
+
+            final double dirX, dirY;
+            final double uX, uY;
+
+            if (distanceSq > combinedRadiusSq) {
+                final double wX = relVelX - invTimeHorizon * relPosX;
+                final double wY = relVelY - invTimeHorizon * relPosY;
+
+                final double wLengthSq = wX * wX + wY * wY;
+                final double dotProduct1 = MathUtil.dot(wX, wY, relPosX, relPosY);
+
+                if (dotProduct1 < 0.0 && dotProduct1 * dotProduct1 > combinedRadiusSq * wLengthSq) {
+                    final double wLength = FastMath.sqrt(wLengthSq);
+                    final double invWLength = 1.0 / wLength;
+                    final double unitWX = invWLength * wX;
+                    final double unitWY = invWLength * wY;
+                    final double k = combinedRadius * invTimeHorizon - wLength;
+
+                    dirX = unitWY;
+                    dirY = -unitWX;
+                    uX = k * unitWX;
+                    uY = k * unitWY;
+                } else {
+                    final double leg = FastMath.sqrt(distanceSq - combinedRadiusSq);
+
+                    if (MathUtil.det(relPosX, relPosY, wX, wY) > 0.0) {
+                        final double invDistanceSq = 1.0 / distanceSq;
+                        dirX = invDistanceSq * (relPosX * leg - relPosY * combinedRadius);
+                        dirY = invDistanceSq * (relPosX * combinedRadius + relPosY * leg);
+                    } else {
+                        final double invDistanceSq = -1.0 / distanceSq;
+                        dirX = invDistanceSq * (relPosX * leg + relPosY * combinedRadius);
+                        dirY = invDistanceSq * (-relPosX * combinedRadius + relPosY * leg);
+                    }
+
+                    final double dotProduct2 = MathUtil.dot(relVelX, relVelY, dirX, dirY);
+                    uX = dotProduct2 * dirX - relVelX;
+                    uY = dotProduct2 * dirY - relVelY;
+                }
+            } else {
+                final double wX = relVelX - invTimeStep * relPosX;
+                final double wY = relVelY - invTimeStep * relPosY;
+
+                final double wLength = FastMath.sqrt(wX * wX + wY * wY);
+                final double invWLength = 1.0 / wLength;
+                final double unitWX = invWLength * wX;
+                final double unitWY = invWLength * wY;
+                final double k = combinedRadius * invTimeStep - wLength;
+
+                dirX = unitWY;
+                dirY = -unitWX;
+                uX = k * unitWX;
+                uY = k * unitWY;
+            }
+
+            lines.pointX[base + i] = velX + 0.5 * uX;
+            lines.pointY[base + i] = velY + 0.5 * uY;
+            lines.dirX[base + i] = dirX;
+            lines.dirY[base + i] = dirY;
+        }
+    }
+
+    private static Kernels select() {
+        if (!Boolean.parseBoolean(System.getProperty("rvo.vector", "false")))
+            return new Kernels();
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return new Kernels();
+
+        try {
+            return (Kernels) Class.forName("rvo.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // 没有 SIMD 支持或类无法链接，退回标量实现
+            return new Kernels();
+        }
+    }
+}
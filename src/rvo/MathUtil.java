@@ -1,6 +1,7 @@
 package rvo;
 
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import org.apache.commons.math3.util.MathArrays;
 
 class MathUtil {
     static final double EPSILON = 0.00001;
@@ -9,7 +10,20 @@ class MathUtil {
         return vector1.getX() * vector2.getY() - vector1.getY() * vector2.getX();
     }
 
+    static double det(double x1, double y1, double x2, double y2) {
+        return x1 * y2 - y1 * x2;
+    }
+
+    // 与 Vector2D.dotProduct 的计算方式一致，保证和对象版本结果逐位相同
+    static double dot(double x1, double y1, double x2, double y2) {
+        return MathArrays.linearCombination(x1, x2, y1, y2);
+    }
+
     static double leftOf(Vector2D point1, Vector2D point2, Vector2D point3) {
         return det(point1.subtract(point3), point2.subtract(point1));
     }
+
+    static double leftOf(Vector2D point1, Vector2D point2, double x3, double y3) {
+        return det(point1.getX() - x3, point1.getY() - y3, point2.getX() - point1.getX(), point2.getY() - point1.getY());
+    }
 }
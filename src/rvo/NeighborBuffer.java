@@ -0,0 +1,66 @@
+package rvo;
+
+import java.util.Arrays;
+
+// 按距离升序保存的近邻（距离平方 + 下标），容量为 maxSize 时只保留最近的 maxSize 个
+final class NeighborBuffer {
+    double[] distSq;
+    int[] index;
+    int size = 0;
+    private int maxSize = Integer.MAX_VALUE;
+
+    NeighborBuffer() {
+        this(8);
+    }
+
+    NeighborBuffer(int capacity) {
+        distSq = new double[Math.max(capacity, 1)];
+        index = new int[distSq.length];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // 清空，并把容量上限设为 maxSize
+    void reset(int maxSize) {
+        size = 0;
+        this.maxSize = maxSize;
+        if (maxSize != Integer.MAX_VALUE && distSq.length < maxSize)
+            grow(maxSize);
+    }
+
+    boolean isFull() {
+        return size == maxSize;
+    }
+
+    // 当前最远近邻的距离平方
+    double last() {
+        return distSq[size - 1];
+    }
+
+    // 插入排序；已满时替换掉最远的一个
+    void insert(double d, int idx) {
+        if (size < maxSize) {
+            if (size == distSq.length)
+                grow(2 * size);
+            size++;
+        }
+
+        int i = size - 1;
+
+        while (i != 0 && d < distSq[i - 1]) {
+            distSq[i] = distSq[i - 1];
+            index[i] = index[i - 1];
+            i--;
+        }
+
+        distSq[i] = d;
+        index[i] = idx;
+    }
+
+    private void grow(int capacity) {
+        distSq = Arrays.copyOf(distSq, capacity);
+        index = Arrays.copyOf(index, capacity);
+    }
+}
@@ -0,0 +1,11 @@
+package rvo;
+
+// agent 近邻查询的空间索引，每帧在阶段2重建一次
+public interface NeighborIndex {
+    enum Type { KD_TREE, GRID }
+
+    void build();
+
+    // 把与 agent 距离平方小于 rangeSq 的 agent 插入它的近邻列表
+    void computeAgentNeighbors(Agent agent, double rangeSq);
+}
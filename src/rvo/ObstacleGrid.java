@@ -0,0 +1,168 @@
+package rvo;
+
+import org.apache.commons.math3.util.FastMath;
+
+// 障碍物近邻的静态查找网格：每个格子预先保存与格子距离在 maxRange 以内的线段，
+// 查询时只需定位格子并过滤候选。线段即 ObstacleTree 中的顶点，下标与其一致。
+// 构建后只读，可被多个 Simulator、多个线程共享
+final class ObstacleGrid {
+    // 格子总数上限，超过时自动放大格子
+    private static final int MAX_CELLS = 1 << 22;
+
+    private final ObstacleTree tree;
+    final double maxRange;
+    final double cellSize;
+
+    private final double originX, originY;
+    private final double invCellSize;
+    private final int numCellsX, numCellsY;
+
+    // CSR 格式：格子 c 的候选线段为 cellSegments[cellStart[c], cellStart[c + 1])
+    private final int[] cellStart;
+    private final int[] cellSegments;
+
+    // 每条线段长度的平方，与 ObstacleTree 中的计算方式一致
+    private final double[] lengthSq;
+
+    ObstacleGrid(ObstacleTree tree, double maxRange, double cellSize) {
+        this.tree = tree;
+        this.maxRange = maxRange;
+
+        final int numSegments = tree.numVertices;
+        final double[] pointX = tree.pointX;
+        final double[] pointY = tree.pointY;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numSegments; i++) {
+            minX = FastMath.min(minX, pointX[i]);
+            minY = FastMath.min(minY, pointY[i]);
+            maxX = FastMath.max(maxX, pointX[i]);
+            maxY = FastMath.max(maxY, pointY[i]);
+        }
+
+        if (numSegments == 0) {
+            minX = minY = maxX = maxY = 0.0;
+        }
+
+        // 超出障碍物包围盒 maxRange 之外的点不可能有障碍物近邻
+        minX -= maxRange;
+        minY -= maxRange;
+        maxX += maxRange;
+        maxY += maxRange;
+
+        cellSize = FastMath.max(cellSize, 1e-3);
+        while ((FastMath.floor((maxX - minX) / cellSize) + 1) * (FastMath.floor((maxY - minY) / cellSize) + 1) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+
+        this.cellSize = cellSize;
+        invCellSize = 1.0 / cellSize;
+        originX = minX;
+        originY = minY;
+        numCellsX = (int) FastMath.floor((maxX - minX) * invCellSize) + 1;
+        numCellsY = (int) FastMath.floor((maxY - minY) * invCellSize) + 1;
+
+        lengthSq = new double[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            final int next = tree.next[i];
+            final double dx = pointX[i] - pointX[next];
+            final double dy = pointY[i] - pointY[next];
+            lengthSq[i] = dx * dx + dy * dy;
+        }
+
+        // 两遍扫描：先计数再填充。格子内任意一点到线段的距离不超过 到格子中心的距离 + 半对角线
+        final double halfDiagonal = 0.5 * cellSize * FastMath.sqrt(2.0);
+        final double reachSq = (maxRange + halfDiagonal) * (maxRange + halfDiagonal);
+        final int numCells = numCellsX * numCellsY;
+        cellStart = new int[numCells + 1];
+        int[] segments = null;
+
+        for (int pass = 0; pass < 2; pass++) {
+            final int[] fill = pass == 0 ? cellStart : new int[numCells];
+
+            for (int i = 0; i < numSegments; i++) {
+                final int next = tree.next[i];
+                final int cx0 = cellX(FastMath.min(pointX[i], pointX[next]) - maxRange - cellSize);
+                final int cx1 = cellX(FastMath.max(pointX[i], pointX[next]) + maxRange + cellSize);
+                final int cy0 = cellY(FastMath.min(pointY[i], pointY[next]) - maxRange - cellSize);
+                final int cy1 = cellY(FastMath.max(pointY[i], pointY[next]) + maxRange + cellSize);
+
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    final double centerY = originY + (cy + 0.5) * cellSize;
+                    for (int cx = cx0; cx <= cx1; cx++) {
+                        final double centerX = originX + (cx + 0.5) * cellSize;
+                        if (segmentDistanceSq(i, centerX, centerY) > reachSq)
+                            continue;
+
+                        final int cell = cy * numCellsX + cx;
+                        if (pass == 0)
+                            cellStart[cell + 1]++;
+                        else
+                            segments[cellStart[cell] + fill[cell]++] = i;
+                    }
+                }
+            }
+
+            if (pass == 0) {
+                for (int c = 0; c < numCells; c++)
+                    cellStart[c + 1] += cellStart[c];
+                segments = new int[cellStart[numCells]];
+            }
+        }
+
+        cellSegments = segments;
+    }
+
+    // 本网格能否回答半径为 range 的查询
+    boolean covers(double range) {
+        return range <= maxRange;
+    }
+
+    // 结果与 ObstacleTree.computeObstacleNeighbors 的集合相同；距离相等的线段先后顺序可能不同
+    void computeObstacleNeighbors(double x, double y, double rangeSq, NeighborBuffer out) {
+        final double fx = (x - originX) * invCellSize;
+        final double fy = (y - originY) * invCellSize;
+        if (!(fx >= 0.0 && fy >= 0.0 && fx < numCellsX && fy < numCellsY))
+            return;
+
+        final int cell = (int) fy * numCellsX + (int) fx;
+        final double[] pointX = tree.pointX;
+        final double[] pointY = tree.pointY;
+
+        for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+            final int vertex1 = cellSegments[k];
+            final int vertex2 = tree.next[vertex1];
+
+            // 只考虑 agent 位于线段右侧（外侧）的线段，与 BSP 查询的条件一致
+            final double agentLeftOfLine = tree.leftOf(vertex1, vertex2, x, y);
+            if (agentLeftOfLine >= 0.0 || agentLeftOfLine * agentLeftOfLine / lengthSq[vertex1] >= rangeSq)
+                continue;
+
+            tree.insertObstacleNeighbor(vertex1, x, y, rangeSq, out);
+        }
+    }
+
+    private int cellX(double x) {
+        return FastMath.max(0, FastMath.min(numCellsX - 1, (int) FastMath.floor((x - originX) * invCellSize)));
+    }
+
+    private int cellY(double y) {
+        return FastMath.max(0, FastMath.min(numCellsY - 1, (int) FastMath.floor((y - originY) * invCellSize)));
+    }
+
+    private double segmentDistanceSq(int vertex, double x, double y) {
+        final int next = tree.next[vertex];
+        final double px = tree.pointX[vertex];
+        final double py = tree.pointY[vertex];
+        final double segX = tree.pointX[next] - px;
+        final double segY = tree.pointY[next] - py;
+
+        double r = lengthSq[vertex] > 0.0 ? ((x - px) * segX + (y - py) * segY) / lengthSq[vertex] : 0.0;
+        r = FastMath.max(0.0, FastMath.min(1.0, r));
+
+        final double dx = x - (px + r * segX);
+        final double dy = y - (py + r * segY);
+        return dx * dx + dy * dy;
+    }
+}
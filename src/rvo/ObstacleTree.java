@@ -0,0 +1,380 @@
+package rvo;
+
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+
+import java.util.Arrays;
+import java.util.List;
+
+// 障碍物 BSP 树，构建后不可修改，可被多个 Simulator、多个线程共享
+// 顶点和节点都按列存储，用下标代替指针；被分割出的新顶点追加在原始顶点之后
+final class ObstacleTree {
+    // 顶点：坐标、方向、凸性以及前后顶点下标
+    final double[] pointX, pointY;
+    final double[] dirX, dirY;
+    final boolean[] convex;
+    final int[] next, previous;
+    final int numVertices;
+
+    // 节点：分割线所在的顶点、左右子节点，-1 表示空
+    private final int[] nodeVertex;
+    private final int[] nodeLeft;
+    private final int[] nodeRight;
+    private final int root;
+    // 查询所需的栈深度
+    private final int stackSize;
+
+    ObstacleTree(List<Obstacle> obstacles) {
+        final Builder builder = new Builder(obstacles);
+
+        final int[] all = new int[obstacles.size()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+
+        root = builder.build(all, all.length);
+
+        numVertices = builder.numVertices;
+        pointX = Arrays.copyOf(builder.pointX, numVertices);
+        pointY = Arrays.copyOf(builder.pointY, numVertices);
+        dirX = Arrays.copyOf(builder.dirX, numVertices);
+        dirY = Arrays.copyOf(builder.dirY, numVertices);
+        convex = Arrays.copyOf(builder.convex, numVertices);
+        next = Arrays.copyOf(builder.next, numVertices);
+        previous = Arrays.copyOf(builder.previous, numVertices);
+
+        nodeVertex = Arrays.copyOf(builder.nodeVertex, builder.numNodes);
+        nodeLeft = Arrays.copyOf(builder.nodeLeft, builder.numNodes);
+        nodeRight = Arrays.copyOf(builder.nodeRight, builder.numNodes);
+        stackSize = builder.maxDepth + 1;
+    }
+
+    int stackSize() {
+        return stackSize;
+    }
+
+    // 查找 (x, y) 周围 rangeSq 内、且位于线段右侧的障碍物线段，结果按距离升序写入 out
+    // stack 由调用者提供，长度不小于 stackSize()，使查询不分配对象且可并发执行
+    void computeObstacleNeighbors(double x, double y, double rangeSq, NeighborBuffer out, int[] stack) {
+        if (root < 0)
+            return;
+
+        // 与递归版本的访问顺序一致：先近侧子树，再本节点，再远侧子树
+        // 栈中的 ~node 表示近侧子树已访问完毕、待处理本节点
+        int top = 0;
+        stack[top++] = root;
+
+        while (top > 0) {
+            final int entry = stack[--top];
+
+            if (entry >= 0) {
+                final int vertex1 = nodeVertex[entry];
+                final int vertex2 = next[vertex1];
+                final double agentLeftOfLine = leftOf(vertex1, vertex2, x, y);
+                final int near = agentLeftOfLine >= 0.0 ? nodeLeft[entry] : nodeRight[entry];
+
+                stack[top++] = ~entry;
+                if (near >= 0)
+                    stack[top++] = near;
+            } else {
+                final int node = ~entry;
+                final int vertex1 = nodeVertex[node];
+                final int vertex2 = next[vertex1];
+                final double agentLeftOfLine = leftOf(vertex1, vertex2, x, y);
+                final double distanceSqLine = agentLeftOfLine * agentLeftOfLine / distanceSq(pointX[vertex2], pointY[vertex2], pointX[vertex1], pointY[vertex1]);
+
+                if (distanceSqLine < rangeSq) {
+                    if (agentLeftOfLine < 0.0) {
+                        insertObstacleNeighbor(vertex1, x, y, rangeSq, out);
+                    }
+
+                    final int far = agentLeftOfLine >= 0.0 ? nodeRight[node] : nodeLeft[node];
+                    if (far >= 0)
+                        stack[top++] = far;
+                }
+            }
+        }
+    }
+
+    // q1 与 q2 之间半径为 radius 的通道是否不被障碍物阻挡
+    boolean queryVisibility(Vector2D q1, Vector2D q2, double radius) {
+        if (root < 0)
+            return true;
+
+        final double q1X = q1.getX(), q1Y = q1.getY();
+        final double q2X = q2.getX(), q2Y = q2.getY();
+        final double radiusSq = radius * radius;
+        final double invLengthQ = 1.0 / q2.distanceSq(q1);
+
+        // 结果是各节点条件的合取，没有副作用，可按任意顺序检查
+        final int[] stack = new int[2 * stackSize];
+        int top = 0;
+        stack[top++] = root;
+
+        while (top > 0) {
+            final int node = stack[--top];
+            final int vertex1 = nodeVertex[node];
+            final int vertex2 = next[vertex1];
+            final int left = nodeLeft[node];
+            final int right = nodeRight[node];
+
+            final double q1LeftOfI = leftOf(vertex1, vertex2, q1X, q1Y);
+            final double q2LeftOfI = leftOf(vertex1, vertex2, q2X, q2Y);
+            final double invLengthI = 1.0 / distanceSq(pointX[vertex2], pointY[vertex2], pointX[vertex1], pointY[vertex1]);
+            final boolean clear = q1LeftOfI * q1LeftOfI * invLengthI >= radiusSq && q2LeftOfI * q2LeftOfI * invLengthI >= radiusSq;
+
+            if (q1LeftOfI >= 0.0 && q2LeftOfI >= 0.0) {
+                top = push(stack, top, left);
+                if (!clear)
+                    top = push(stack, top, right);
+            } else if (q1LeftOfI <= 0.0 && q2LeftOfI <= 0.0) {
+                top = push(stack, top, right);
+                if (!clear)
+                    top = push(stack, top, left);
+            } else if (q1LeftOfI >= 0.0 && q2LeftOfI <= 0.0) {
+                top = push(stack, top, left);
+                top = push(stack, top, right);
+            } else {
+                final double point1LeftOfQ = MathUtil.det(q1X - pointX[vertex1], q1Y - pointY[vertex1], q2X - q1X, q2Y - q1Y);
+                final double point2LeftOfQ = MathUtil.det(q1X - pointX[vertex2], q1Y - pointY[vertex2], q2X - q1X, q2Y - q1Y);
+
+                if (!(point1LeftOfQ * point2LeftOfQ >= 0.0 && point1LeftOfQ * point1LeftOfQ * invLengthQ > radiusSq && point2LeftOfQ * point2LeftOfQ * invLengthQ > radiusSq)) {
+                    return false;
+                }
+
+                top = push(stack, top, left);
+                top = push(stack, top, right);
+            }
+        }
+
+        return true;
+    }
+
+    private static int push(int[] stack, int top, int node) {
+        if (node >= 0)
+            stack[top++] = node;
+        return top;
+    }
+
+    void insertObstacleNeighbor(int vertex, double x, double y, double rangeSq, NeighborBuffer out) {
+        final int nextVertex = next[vertex];
+        final double px = pointX[vertex];
+        final double py = pointY[vertex];
+        final double segX = pointX[nextVertex] - px;
+        final double segY = pointY[nextVertex] - py;
+
+        final double r = MathUtil.dot(x - px, y - py, segX, segY) / distanceSq(pointX[nextVertex], pointY[nextVertex], px, py);
+        final double distSq;
+
+        if (r < 0.0) {
+            distSq = distanceSq(x, y, px, py);
+        } else if (r > 1.0) {
+            distSq = distanceSq(x, y, pointX[nextVertex], pointY[nextVertex]);
+        } else {
+            distSq = distanceSq(x, y, px + r * segX, py + r * segY);
+        }
+
+        if (distSq < rangeSq) {
+            out.insert(distSq, vertex);
+        }
+    }
+
+    double leftOf(int vertex1, int vertex2, double x, double y) {
+        return MathUtil.det(pointX[vertex1] - x, pointY[vertex1] - y, pointX[vertex2] - pointX[vertex1], pointY[vertex2] - pointY[vertex1]);
+    }
+
+    private static double distanceSq(double x1, double y1, double x2, double y2) {
+        final double dx = x2 - x1;
+        final double dy = y2 - y1;
+        return dx * dx + dy * dy;
+    }
+
+    // 构建过程中使用的可增长缓冲区；分割只修改这里的副本，不会改动传入的 Obstacle
+    private static final class Builder {
+        double[] pointX, pointY, dirX, dirY;
+        boolean[] convex;
+        int[] next, previous;
+        int numVertices;
+
+        int[] nodeVertex = new int[16];
+        int[] nodeLeft = new int[16];
+        int[] nodeRight = new int[16];
+        int numNodes = 0;
+        int maxDepth = 0;
+        private int depth = 0;
+
+        Builder(List<Obstacle> obstacles) {
+            numVertices = obstacles.size();
+            final int capacity = Math.max(2 * numVertices, 16);
+            pointX = new double[capacity];
+            pointY = new double[capacity];
+            dirX = new double[capacity];
+            dirY = new double[capacity];
+            convex = new boolean[capacity];
+            next = new int[capacity];
+            previous = new int[capacity];
+
+            for (int i = 0; i < numVertices; i++) {
+                final Obstacle obstacle = obstacles.get(i);
+                pointX[i] = obstacle.point.getX();
+                pointY[i] = obstacle.point.getY();
+                dirX[i] = obstacle.direction.getX();
+                dirY[i] = obstacle.direction.getY();
+                convex[i] = obstacle.convex;
+                next[i] = obstacle.next.id;
+                previous[i] = obstacle.previous.id;
+            }
+        }
+
+        private double leftOf(int vertex1, int vertex2, int vertex3) {
+            return MathUtil.det(pointX[vertex1] - pointX[vertex3], pointY[vertex1] - pointY[vertex3], pointX[vertex2] - pointX[vertex1], pointY[vertex2] - pointY[vertex1]);
+        }
+
+        // 按 (较大一侧, 较小一侧) 的字典序比较两种划分
+        private static boolean better(int leftSize, int rightSize, int minLeft, int minRight) {
+            final int max1 = Math.max(leftSize, rightSize), min1 = Math.min(leftSize, rightSize);
+            final int max2 = Math.max(minLeft, minRight), min2 = Math.min(minLeft, minRight);
+            return max1 < max2 || max1 <= max2 && min1 < min2;
+        }
+
+        private int addVertex(double x, double y, double dx, double dy, int prev, int nxt) {
+            if (numVertices == pointX.length) {
+                final int capacity = 2 * numVertices;
+                pointX = Arrays.copyOf(pointX, capacity);
+                pointY = Arrays.copyOf(pointY, capacity);
+                dirX = Arrays.copyOf(dirX, capacity);
+                dirY = Arrays.copyOf(dirY, capacity);
+                convex = Arrays.copyOf(convex, capacity);
+                next = Arrays.copyOf(next, capacity);
+                previous = Arrays.copyOf(previous, capacity);
+            }
+
+            pointX[numVertices] = x;
+            pointY[numVertices] = y;
+            dirX[numVertices] = dx;
+            dirY[numVertices] = dy;
+            convex[numVertices] = true;
+            previous[numVertices] = prev;
+            next[numVertices] = nxt;
+            return numVertices++;
+        }
+
+        private int allocNode() {
+            if (numNodes == nodeVertex.length) {
+                final int capacity = 2 * numNodes;
+                nodeVertex = Arrays.copyOf(nodeVertex, capacity);
+                nodeLeft = Arrays.copyOf(nodeLeft, capacity);
+                nodeRight = Arrays.copyOf(nodeRight, capacity);
+            }
+            return numNodes++;
+        }
+
+        // 与 RVO2 的 buildObstacleTreeRecursive 相同的划分策略，节点按先序编号
+        int build(int[] obstacles, int size) {
+            if (size == 0) {
+                return -1;
+            }
+
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+
+            final int node = allocNode();
+
+            int optimalSplit = 0;
+            int minLeft = size;
+            int minRight = size;
+
+            for (int i = 0; i < size; i++) {
+                int leftSize = 0;
+                int rightSize = 0;
+
+                final int obstacleI1 = obstacles[i];
+                final int obstacleI2 = next[obstacleI1];
+
+                for (int j = 0; j < size; j++) {
+                    if (i == j) {
+                        continue;
+                    }
+
+                    final int obstacleJ1 = obstacles[j];
+                    final int obstacleJ2 = next[obstacleJ1];
+
+                    final double j1LeftOfI = leftOf(obstacleI1, obstacleI2, obstacleJ1);
+                    final double j2LeftOfI = leftOf(obstacleI1, obstacleI2, obstacleJ2);
+
+                    if (j1LeftOfI >= -MathUtil.EPSILON && j2LeftOfI >= -MathUtil.EPSILON) {
+                        leftSize++;
+                    } else if (j1LeftOfI <= MathUtil.EPSILON && j2LeftOfI <= MathUtil.EPSILON) {
+                        rightSize++;
+                    } else {
+                        leftSize++;
+                        rightSize++;
+                    }
+
+                    if (!better(leftSize, rightSize, minLeft, minRight)) {
+                        break;
+                    }
+                }
+
+                if (better(leftSize, rightSize, minLeft, minRight)) {
+                    minLeft = leftSize;
+                    minRight = rightSize;
+                    optimalSplit = i;
+                }
+            }
+
+            final int[] leftObstacles = new int[minLeft];
+            final int[] rightObstacles = new int[minRight];
+            int leftCounter = 0;
+            int rightCounter = 0;
+
+            final int obstacleI1 = obstacles[optimalSplit];
+            final int obstacleI2 = next[obstacleI1];
+
+            for (int j = 0; j < size; j++) {
+                if (optimalSplit == j) {
+                    continue;
+                }
+
+                final int obstacleJ1 = obstacles[j];
+                final int obstacleJ2 = next[obstacleJ1];
+
+                final double j1LeftOfI = leftOf(obstacleI1, obstacleI2, obstacleJ1);
+                final double j2LeftOfI = leftOf(obstacleI1, obstacleI2, obstacleJ2);
+
+                if (j1LeftOfI >= -MathUtil.EPSILON && j2LeftOfI >= -MathUtil.EPSILON) {
+                    leftObstacles[leftCounter++] = obstacleJ1;
+                } else if (j1LeftOfI <= MathUtil.EPSILON && j2LeftOfI <= MathUtil.EPSILON) {
+                    rightObstacles[rightCounter++] = obstacleJ1;
+                } else {
+                    final double iX = pointX[obstacleI2] - pointX[obstacleI1];
+                    final double iY = pointY[obstacleI2] - pointY[obstacleI1];
+                    final double t = MathUtil.det(iX, iY, pointX[obstacleJ1] - pointX[obstacleI1], pointY[obstacleJ1] - pointY[obstacleI1]) / MathUtil.det(iX, iY, pointX[obstacleJ1] - pointX[obstacleJ2], pointY[obstacleJ1] - pointY[obstacleJ2]);
+
+                    final double splitX = pointX[obstacleJ1] + t * (pointX[obstacleJ2] - pointX[obstacleJ1]);
+                    final double splitY = pointY[obstacleJ1] + t * (pointY[obstacleJ2] - pointY[obstacleJ1]);
+
+                    final int newObstacle = addVertex(splitX, splitY, dirX[obstacleJ1], dirY[obstacleJ1], obstacleJ1, obstacleJ2);
+
+                    next[obstacleJ1] = newObstacle;
+                    previous[obstacleJ2] = newObstacle;
+
+                    if (j1LeftOfI > 0.0) {
+                        leftObstacles[leftCounter++] = obstacleJ1;
+                        rightObstacles[rightCounter++] = newObstacle;
+                    } else {
+                        rightObstacles[rightCounter++] = obstacleJ1;
+                        leftObstacles[leftCounter++] = newObstacle;
+                    }
+                }
+            }
+
+            nodeVertex[node] = obstacleI1;
+            final int left = build(leftObstacles, leftCounter);
+            nodeLeft[node] = left;
+            final int right = build(rightObstacles, rightCounter);
+            nodeRight[node] = right;
+
+            depth--;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package rvo;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+
+// ORCA 线性规划求解器，线段缓冲区可复用，每个线程持有一个，求解过程不分配对象
+final class OrcaSolver {
+    // 以 (点, 方向) 表示的有向直线，按列存储
+    static final class Lines {
+        double[] pointX = new double[16];
+        double[] pointY = new double[16];
+        double[] dirX = new double[16];
+        double[] dirY = new double[16];
+        int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(double px, double py, double dx, double dy) {
+            ensureCapacity(size + 1);
+
+            pointX[size] = px;
+            pointY[size] = py;
+            dirX[size] = dx;
+            dirY[size] = dy;
+            size++;
+        }
+
+        void ensureCapacity(int n) {
+            if (n > pointX.length) {
+                final int capacity = Math.max(2 * pointX.length, n);
+                pointX = Arrays.copyOf(pointX, capacity);
+                pointY = Arrays.copyOf(pointY, capacity);
+                dirX = Arrays.copyOf(dirX, capacity);
+                dirY = Arrays.copyOf(dirY, capacity);
+            }
+        }
+
+        // 只保留前 n 条
+        void truncate(int n) {
+            size = n;
+        }
+
+        void copyPrefix(Lines other, int n) {
+            size = 0;
+            for (int i = 0; i < n; i++)
+                add(other.pointX[i], other.pointY[i], other.dirX[i], other.dirY[i]);
+        }
+    }
+
+    // 近邻 agent 的相对状态，按列存储，供 Kernels 批量计算约束
+    static final class NeighborBatch {
+        double[] relPosX = new double[16];
+        double[] relPosY = new double[16];
+        double[] relVelX = new double[16];
+        double[] relVelY = new double[16];
+        double[] combinedRadius = new double[16];
+
+        void ensureCapacity(int n) {
+            if (n > relPosX.length) {
+                final int capacity = Math.max(2 * relPosX.length, n);
+                relPosX = Arrays.copyOf(relPosX, capacity);
+                relPosY = Arrays.copyOf(relPosY, capacity);
+                relVelX = Arrays.copyOf(relVelX, capacity);
+                relVelY = Arrays.copyOf(relVelY, capacity);
+                combinedRadius = Arrays.copyOf(combinedRadius, capacity);
+            }
+        }
+    }
+
+    final Lines lines = new Lines();
+    final NeighborBatch batch = new NeighborBatch();
+    private final Lines projectedLines = new Lines();
+
+    double resultX, resultY;
+    // StepMetrics 打开时由 Simulator 累加：近邻数、障碍物约束数、退回 linearProgram3 的次数
+    long numNeighbors, numObstacleLines, numFallbacks;
+    // 最近一次 solve 的障碍物约束数、是否退回了 linearProgram3
+    int lastObstacleLines;
+    boolean lastFallback;
+    private double maxSpeed;
+
+    // 以 prefVel 为目标在 lines 上求解，前 numObstacleLines 条为障碍物约束
+    void solve(double prefVelX, double prefVelY, double maxSpeed, int numObstacleLines) {
+        this.maxSpeed = maxSpeed;
+
+        final int lineFail = linearProgram2(lines, prefVelX, prefVelY, false);
+
+        lastObstacleLines = numObstacleLines;
+        lastFallback = lineFail < lines.size;
+        if (lineFail < lines.size) {
+            linearProgram3(numObstacleLines, lineFail);
+        }
+    }
+
+    private boolean linearProgram1(Lines lines, int lineNo, double optX, double optY, boolean optimizeDirection) {
+        final double pointX = lines.pointX[lineNo];
+        final double pointY = lines.pointY[lineNo];
+        final double dirX = lines.dirX[lineNo];
+        final double dirY = lines.dirY[lineNo];
+
+        final double dotProduct = MathUtil.dot(pointX, pointY, dirX, dirY);
+        final double discriminant = dotProduct * dotProduct + maxSpeed * maxSpeed - (pointX * pointX + pointY * pointY);
+
+        if (discriminant < 0.0) {
+            return false;
+        }
+
+        final double sqrtDiscriminant = FastMath.sqrt(discriminant);
+        double tLeft = -sqrtDiscriminant - dotProduct;
+        double tRight = sqrtDiscriminant - dotProduct;
+
+        for (int i = 0; i < lineNo; i++) {
+            final double denominator = MathUtil.det(dirX, dirY, lines.dirX[i], lines.dirY[i]);
+            final double numerator = MathUtil.det(lines.dirX[i], lines.dirY[i], pointX - lines.pointX[i], pointY - lines.pointY[i]);
+
+            if (FastMath.abs(denominator) <= MathUtil.EPSILON) {
+                if (numerator < 0.0) {
+                    return false;
+                }
+
+                continue;
+            }
+
+            final double t = numerator / denominator;
+
+            if (denominator >= 0.0) {
+                tRight = FastMath.min(tRight, t);
+            } else {
+                tLeft = FastMath.max(tLeft, t);
+            }
+
+            if (tLeft > tRight) {
+                return false;
+            }
+        }
+
+        final double t;
+        if (optimizeDirection) {
+            t = MathUtil.dot(optX, optY, dirX, dirY) > 0.0 ? tRight : tLeft;
+        } else {
+            final double tOpt = MathUtil.dot(dirX, dirY, optX - pointX, optY - pointY);
+            t = tOpt < tLeft ? tLeft : tOpt > tRight ? tRight : tOpt;
+        }
+
+        resultX = pointX + t * dirX;
+        resultY = pointY + t * dirY;
+
+        return true;
+    }
+
+    private int linearProgram2(Lines lines, double optX, double optY, boolean optimizeDirection) {
+        if (optimizeDirection) {
+            resultX = maxSpeed * optX;
+            resultY = maxSpeed * optY;
+        } else if (optX * optX + optY * optY > maxSpeed * maxSpeed) {
+            final double invNorm = 1 / FastMath.sqrt(optX * optX + optY * optY);
+            resultX = maxSpeed * (invNorm * optX);
+            resultY = maxSpeed * (invNorm * optY);
+        } else {
+            resultX = optX;
+            resultY = optY;
+        }
+
+        for (int lineNo = 0; lineNo < lines.size; lineNo++) {
+            if (MathUtil.det(lines.dirX[lineNo], lines.dirY[lineNo], lines.pointX[lineNo] - resultX, lines.pointY[lineNo] - resultY) > 0.0) {
+                final double tempX = resultX;
+                final double tempY = resultY;
+                if (!linearProgram1(lines, lineNo, optX, optY, optimizeDirection)) {
+                    resultX = tempX;
+                    resultY = tempY;
+
+                    return lineNo;
+                }
+            }
+        }
+
+        return lines.size;
+    }
+
+    private void linearProgram3(int numObstacleLines, int beginLine) {
+        double distance = 0.0;
+
+        // 障碍物约束在投影过程中保持不变，只复制一次
+        projectedLines.copyPrefix(lines, numObstacleLines);
+
+        for (int i = beginLine; i < lines.size; i++) {
+            final double pointX = lines.pointX[i];
+            final double pointY = lines.pointY[i];
+            final double dirX = lines.dirX[i];
+            final double dirY = lines.dirY[i];
+
+            if (MathUtil.det(dirX, dirY, pointX - resultX, pointY - resultY) > distance) {
+                projectedLines.truncate(numObstacleLines);
+
+                for (int j = numObstacleLines; j < i; j++) {
+                    final double determinant = MathUtil.det(dirX, dirY, lines.dirX[j], lines.dirY[j]);
+                    final double px, py;
+
+                    if (FastMath.abs(determinant) <= MathUtil.EPSILON) {
+                        if (MathUtil.dot(dirX, dirY, lines.dirX[j], lines.dirY[j]) > 0.0) {
+                            continue;
+                        }
+
+                        px = 0.5 * (pointX + lines.pointX[j]);
+                        py = 0.5 * (pointY + lines.pointY[j]);
+                    } else {
+                        final double s = MathUtil.det(lines.dirX[j], lines.dirY[j], pointX - lines.pointX[j], pointY - lines.pointY[j]) / determinant;
+                        px = pointX + s * dirX;
+                        py = pointY + s * dirY;
+                    }
+
+                    final double dx = lines.dirX[j] - dirX;
+                    final double dy = lines.dirY[j] - dirY;
+                    final double invNorm = 1 / FastMath.sqrt(dx * dx + dy * dy);
+                    projectedLines.add(px, py, invNorm * dx, invNorm * dy);
+                }
+
+                final double tempX = resultX;
+                final double tempY = resultY;
+                if (linearProgram2(projectedLines, -dirY, dirX, true) < projectedLines.size) {
+                    resultX = tempX;
+                    resultY = tempY;
+                }
+
+                distance = MathUtil.det(dirX, dirY, pointX - resultX, pointY - resultY);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package rvo;
+
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 分区模拟中的一个区域：x 属于 [lo, hi) 的竖条。sim 中前 numOwned 个 agent 归本区域，
+// 之后是本帧的 halo（相邻区域边界附近的 agent 以及刚迁出的 agent），只用于近邻查询，帧末丢弃。
+// 一帧的顺序：dropHalo -> detachEmigrants -> 向相邻区域发送迁出和 halo -> 读入迁入和 halo -> step。
+// 相邻区域之间只交换一次，因此中间区域的宽度必须超过 halo 宽度加上一帧的最大位移
+public final class Region {
+    final Simulator sim;
+    private final double lo, hi;
+    private int numOwned = 0;
+
+    public Region(Simulator sim, double lo, double hi) {
+        this.sim = sim;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    public Simulator getSimulator() { return sim; }
+    public int getNumOwned() { return numOwned; }
+
+    // 读入 n 个归本区域的 agent（初始分配或迁入），放到已有 agent 之后、halo 之前
+    public void readOwned(DataInput in, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            final Agent a = sim.appendAgent();
+            readAgent(in, a);
+            swap(a.slot, numOwned++);
+        }
+    }
+
+    public void readHalo(DataInput in, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            readAgent(in, sim.appendAgent());
+    }
+
+    public void dropHalo() {
+        sim.truncateAgents(numOwned);
+    }
+
+    // 把离开 [lo, hi) 的 agent 移到 numOwned 之后，它们在下一帧作为 halo 留在本地
+    public void detachEmigrants() {
+        final AgentStore store = sim.store;
+        int i = 0;
+        while (i < numOwned) {
+            final double x = store.posX[i];
+            if (x < lo || x >= hi)
+                swap(i, --numOwned);
+            else
+                i++;
+        }
+    }
+
+    // 写出迁往左侧（left）或右侧的 agent：个数 + 记录
+    public void writeEmigrants(DataOutput out, boolean left) throws IOException {
+        final AgentStore store = sim.store;
+        final int size = sim.oriAgents.size();
+        int n = 0;
+        for (int i = numOwned; i < size; i++)
+            if (left ? store.posX[i] < lo : store.posX[i] >= hi)
+                n++;
+
+        out.writeInt(n);
+        for (int i = numOwned; i < size; i++)
+            if (left ? store.posX[i] < lo : store.posX[i] >= hi)
+                writeAgent(sim, i, out);
+    }
+
+    // 写出第 frame 帧参与模拟、且与左侧或右侧边界距离小于 width 的 agent：个数 + 记录
+    public void writeHalo(DataOutput out, boolean left, int frame, double width) throws IOException {
+        int n = 0;
+        for (int i = 0; i < numOwned; i++)
+            if (inHalo(i, left, frame, width))
+                n++;
+
+        out.writeInt(n);
+        for (int i = 0; i < numOwned; i++)
+            if (inHalo(i, left, frame, width))
+                writeAgent(sim, i, out);
+    }
+
+    private boolean inHalo(int slot, boolean left, int frame, double width) {
+        final double x = sim.store.posX[slot];
+        if (left ? !(x < lo + width) : !(x >= hi - width))
+            return false;
+        final Agent a = sim.oriAgents.get(slot);
+        return a.canShowUp(frame) && !a.reachedGoal();
+    }
+
+    // 模拟第 frame 帧，halo 只参与近邻查询
+    public void step(int frame) {
+        sim.numStepped = numOwned;
+        sim.doStep(frame, frame + 1);
+    }
+
+    // 写出本区域的全部 agent：个数 + 记录
+    public void writeOwned(DataOutput out) throws IOException {
+        out.writeInt(numOwned);
+        for (int i = 0; i < numOwned; i++)
+            writeAgent(sim, i, out);
+    }
+
+    private void swap(int i, int j) {
+        if (i == j)
+            return;
+
+        final AgentStore store = sim.store;
+        swap(store.posX, i, j);
+        swap(store.posY, i, j);
+        swap(store.velX, i, j);
+        swap(store.velY, i, j);
+        swap(store.goalX, i, j);
+        swap(store.goalY, i, j);
+        swap(store.maxSpeed, i, j);
+        store.ownPara();
+        for (int k = 0; k < AgentStore.NUM_PARA; k++)
+            swap(store.para, i * AgentStore.NUM_PARA + k, j * AgentStore.NUM_PARA + k);
+
+        final Agent a = sim.oriAgents.get(i);
+        final Agent b = sim.oriAgents.get(j);
+        int t;
+        t = a.id; a.id = b.id; b.id = t;
+        t = a.start; a.start = b.start; b.start = t;
+        t = a.end; a.end = b.end; b.end = t;
+        t = a.diff; a.diff = b.diff; b.diff = t;
+        t = a.goFrames; a.goFrames = b.goFrames; b.goFrames = t;
+        sim.invalidateActive();
+    }
+
+    private static void swap(double[] v, int i, int j) {
+        final double t = v[i];
+        v[i] = v[j];
+        v[j] = t;
+    }
+
+    // agent 记录：id start end diff goFrames（int），pos vel goal maxSpeed（double），6 个参数（double）
+    public static void writeAgent(Simulator sim, int slot, DataOutput out) throws IOException {
+        final AgentStore store = sim.store;
+        final Agent a = sim.oriAgents.get(slot);
+        out.writeInt(a.id);
+        out.writeInt(a.start);
+        out.writeInt(a.end);
+        out.writeInt(a.diff);
+        out.writeInt(a.goFrames);
+        out.writeDouble(store.posX[slot]);
+        out.writeDouble(store.posY[slot]);
+        out.writeDouble(store.velX[slot]);
+        out.writeDouble(store.velY[slot]);
+        out.writeDouble(store.goalX[slot]);
+        out.writeDouble(store.goalY[slot]);
+        out.writeDouble(store.maxSpeed[slot]);
+        for (int k = 0; k < AgentStore.NUM_PARA; k++)
+            out.writeDouble(store.para[store.paraIndex(slot) + k]);
+    }
+
+    private static void readAgent(DataInput in, Agent a) throws IOException {
+        a.id = in.readInt();
+        readState(in, a);
+    }
+
+    // 读取 id 之后的部分
+    private static void readState(DataInput in, Agent a) throws IOException {
+        final AgentStore store = a.store;
+        final int slot = a.slot;
+        a.start = in.readInt();
+        a.end = in.readInt();
+        a.diff = in.readInt();
+        a.goFrames = in.readInt();
+        store.posX[slot] = in.readDouble();
+        store.posY[slot] = in.readDouble();
+        store.velX[slot] = in.readDouble();
+        store.velY[slot] = in.readDouble();
+        store.goalX[slot] = in.readDouble();
+        store.goalY[slot] = in.readDouble();
+        store.maxSpeed[slot] = in.readDouble();
+        store.ownPara();
+        for (int k = 0; k < AgentStore.NUM_PARA; k++)
+            store.para[slot * AgentStore.NUM_PARA + k] = in.readDouble();
+    }
+
+    // 读入 n 条记录，按 id 写回 sim 中已有的 agent（协调者汇总各区域的结果）
+    public static void readInto(Simulator sim, DataInput in, int n) throws IOException {
+        final Map<Integer, Agent> byId = new HashMap<>();
+        for (Agent a : sim.oriAgents)
+            byId.put(a.id, a);
+
+        for (int i = 0; i < n; i++) {
+            final int id = in.readInt();
+            final Agent a = byId.get(id);
+            if (a == null)
+                throw new IOException("unknown agent id " + id);
+            readState(in, a);
+        }
+        sim.invalidateActive();
+    }
+
+    // halo 宽度：所有 agent 的 neighborDistance 的最大值
+    public static double haloWidth(Simulator sim) {
+        final AgentStore store = sim.store;
+        double width = 0.0;
+        for (int slot = 0; slot < sim.oriAgents.size(); slot++)
+            width = Math.max(width, store.neighborDistance(slot));
+        return width;
+    }
+
+    // 一帧的最大位移：求解器把速度限制在 maxSpeed 以内
+    public static double maxStep(Simulator sim) {
+        final AgentStore store = sim.store;
+        double step = 0.0;
+        for (int slot = 0; slot < sim.oriAgents.size(); slot++)
+            step = Math.max(step, store.maxSpeed[slot] * sim.timeStep);
+        return step;
+    }
+
+    // 场景配置：时间步、近邻索引类型、障碍物网格和障碍物多边形（顶点按加入时的顺序）
+    public static void writeScene(Simulator sim, DataOutput out) throws IOException {
+        out.writeDouble(sim.timeStep);
+        out.writeUTF(sim.neighborIndex == sim.kdTree ? NeighborIndex.Type.KD_TREE.name() : NeighborIndex.Type.GRID.name());
+        out.writeDouble(sim.obstacleGrid != null ? sim.obstacleGrid.maxRange : 0.0);
+        out.writeDouble(sim.obstacleGrid != null ? sim.obstacleGrid.cellSize : 0.0);
+
+        final List<Obstacle> obstacles = sim.obstacles;
+        int numPolygons = 0;
+        for (int i = 0; i < obstacles.size(); i += polygonSize(obstacles.get(i)))
+            numPolygons++;
+
+        out.writeInt(numPolygons);
+        for (int i = 0; i < obstacles.size(); ) {
+            final Obstacle first = obstacles.get(i);
+            final int n = polygonSize(first);
+            out.writeInt(n);
+            Obstacle o = first;
+            for (int k = 0; k < n; k++, o = o.next) {
+                out.writeDouble(o.point.getX());
+                out.writeDouble(o.point.getY());
+            }
+            i += n;
+        }
+    }
+
+    private static int polygonSize(Obstacle first) {
+        int n = 1;
+        for (Obstacle o = first.next; o != first; o = o.next)
+            n++;
+        return n;
+    }
+
+    // 按 writeScene 的内容构造一个没有 agent 的 Simulator，真实轨迹由调用者设置
+    public static Simulator readScene(DataInput in) throws IOException {
+        final Simulator sim = new Simulator();
+        sim.setTimeStep(in.readDouble());
+        sim.setNeighborIndex(NeighborIndex.Type.valueOf(in.readUTF()));
+        final double gridRange = in.readDouble();
+        final double gridCellSize = in.readDouble();
+
+        final int numPolygons = in.readInt();
+        for (int p = 0; p < numPolygons; p++) {
+            final int n = in.readInt();
+            final List<Vector2D> vertices = new ArrayList<>(n);
+            for (int k = 0; k < n; k++)
+                vertices.add(new Vector2D(in.readDouble(), in.readDouble()));
+            sim.addObstacle(vertices);
+        }
+        sim.processObstacles();
+        if (gridRange > 0)
+            sim.setObstacleGrid(gridRange, gridCellSize);
+
+        return sim;
+    }
+}
@@ -2,32 +2,82 @@ package rvo;
 
 import app.RDScene;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import org.apache.commons.math3.util.FastMath;
+import utilPac.SparseMatrix;
+import utilPac.SparseTrajectory;
+import utilPac.Trajectory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleSupplier;
 
 public class Simulator {
+    final AgentStore store;
     final List<Agent> oriAgents = new ArrayList<>();
     final List<Obstacle> obstacles = new ArrayList<>();
+    // 由 processObstacles 编译，之后只读，拷贝出的 Simulator 直接共享
+    ObstacleTree obstacleTree = new ObstacleTree(obstacles);
+    // 可选的障碍物近邻查找网格，为 null 时只用 BSP 树
+    ObstacleGrid obstacleGrid = null;
     final KdTree kdTree = new KdTree(this);
+    NeighborIndex neighborIndex = kdTree;
+    private NeighborIndex.Type neighborIndexType = NeighborIndex.Type.KD_TREE;
+    final OrcaSolver solver = new OrcaSolver();
 
-    List<List<Vector2D>> truePos, trueVel;
+    // 真实轨迹，可能是内存映射文件，所有拷贝共享；真实速度在 resetTrue 中按需计算
+    Trajectory truePos;
     Agent defaultAgent = null;
     double globalTime = 0;
     double timeStep = 0;
 
     List<Agent> agents = new ArrayList<>();
-
-    public Simulator() { }
+    // slot 不小于 numStepped 的 agent 只参与近邻查询，doStep 不更新它们（Region 的 halo）
+    int numStepped = Integer.MAX_VALUE;
+    // truncateAgents 移除的 Agent，按 slot 降序存放，appendAgent 时复用
+    private final List<Agent> spareAgents = new ArrayList<>();
+
+    // 增量维护的活跃集合：agents 按 oriAgents 的顺序排列（agent 只由 addAgent 和拷贝构造创建，oriAgents.get(i).slot == i），
+    // 出现的 agent 从按 start 排序的队列中取出，到达终点的在帧开始时移除。
+    // activeFrame 为 agents 对应的下一帧，为 -1 时需要整体重建
+    private int[] spawnOrder = new int[0];
+    private int spawnCursor = 0;
+    private int activeFrame = -1;
+    // 以真实轨迹计算的每帧存活人数，按需计算并缓存
+    private int[] aliveTimeline = null;
+
+    // 帧内并行：阶段3、阶段4按 agent 分段执行，每段使用自己的 solver
+    private static final int PHASE_VELOCITY = 0;
+    private static final int PHASE_UPDATE = 1;
+    private static final int PHASE_UPDATE_DIFF = 2;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ForkJoinPool pool = null;
+    private OrcaSolver[] chunkSolvers = new OrcaSolver[0];
+
+    // 为 null 时不计时、不计数；拷贝出的 Simulator 共享同一个
+    private StepMetrics metrics = null;
+    private final long[] framePhaseNanos = new long[StepMetrics.NUM_PHASES];
+
+    public Simulator() {
+        store = new AgentStore();
+    }
     public Simulator(Simulator oriSim) {
+        store = new AgentStore(oriSim.store.size);
         for (Agent a : oriSim.oriAgents)
             oriAgents.add(new Agent(a, this));
 
         obstacles.addAll(oriSim.obstacles);
         truePos = oriSim.truePos;
-        trueVel = oriSim.trueVel;
 
         timeStep = oriSim.timeStep;
-        processObstacles();
+        setNeighborIndex(oriSim.neighborIndexType);
+        obstacleTree = oriSim.obstacleTree;
+        obstacleGrid = oriSim.obstacleGrid;
+        metrics = oriSim.metrics;
     }
 
 
@@ -36,50 +86,88 @@ public class Simulator {
     public int getNumAgents() { return agents.size(); }
 
     public double[] getAllPara() {
-        double[] res = new double[oriAgents.size()*6];
+        double[] res = new double[oriAgents.size() * AgentStore.NUM_PARA];
         int st = 0;
         for (Agent a : oriAgents) {
-            res[st] = a.radius;
-            res[st+1] = a.neighborDistance;
-            res[st+2] = a.maxNeighbors;
-            res[st+3] = a.timeHorizonAgents;
-            res[st+4] = a.timeHorizonObstacles;
-            res[st+5] = a.prefSpeed;
-            st = st+6;
+            System.arraycopy(store.para, store.paraIndex(a.slot), res, st, AgentStore.NUM_PARA);
+            st += AgentStore.NUM_PARA;
         }
         return res;
     }
 
-    public void setTimeStep(double timeStep) { this.timeStep = timeStep; }
+    // 按 getAllPara 的排列一次性设置所有 agent 的参数，与逐个调用 Agent.setPara 等价
+    public void setAllPara(double[] para) {
+        if (para.length < oriAgents.size() * AgentStore.NUM_PARA)
+            throw new IllegalArgumentException("expected " + oriAgents.size() * AgentStore.NUM_PARA + " parameters, got " + para.length);
 
-    public void setTruePosThenCalcVel(List<List<Vector2D>> truePos) {
-        this.truePos = truePos;
-        int frames = truePos.size();
-        int numPeople = truePos.get(0).size();
-        double invTimestep = 1.0 / timeStep;
+        int st = 0;
+        for (Agent a : oriAgents) {
+            store.setPara(a.slot, para[st], para[st + 1], para[st + 2], para[st + 3], para[st + 4], para[st + 5]);
+            store.maxSpeed[a.slot] = para[st + AgentStore.PREF_SPEED] * 2;
+            st += AgentStore.NUM_PARA;
+        }
+    }
 
-        // 某一帧的真实速度应该是上一帧到这一帧的速度
-        trueVel = new ArrayList<>(frames);
+    // 与 setAllPara 的结果相同，但直接引用 para 中从 offset 开始的一段（slot == 下标），只重新计算 maxSpeed。
+    // 绑定期间调用者不能修改这一段；之后任何写参数的操作（setAllPara、Agent.setPara 等）会先复制出自有的一份
+    public void bindAllPara(double[] para, int offset) {
+        store.bindPara(para, offset);
+        for (int i = 0; i < store.size; i++)
+            store.maxSpeed[i] = para[offset + i * AgentStore.NUM_PARA + AgentStore.PREF_SPEED] * 2;
+    }
 
-        // 所有第一帧的速度都是 0
-        List<Vector2D> initVel = new ArrayList<>();
-        for (int i = 0; i < numPeople; i++)
-            initVel.add(Vector2D.ZERO);
-        trueVel.add(initVel);
+    // 解除 bindAllPara 的绑定，参数保持不变但复制到自有数组，之后不再引用调用者的数组
+    public void unbindAllPara() {
+        store.ownPara();
+    }
 
-        // 计算其余的真实速度
-        for (int i = 1; i < frames; i++) {
-            List<Vector2D> prevPos = truePos.get(i - 1);
-            List<Vector2D> curPos = truePos.get(i);
-            List<Vector2D> curVel = new ArrayList<>();
-            for (int j = 0; j < numPeople; j++) {
-                Vector2D v = curPos.get(j).subtract(prevPos.get(j)).scalarMultiply(invTimestep);
-                curVel.add(v);
-            }
-            trueVel.add(curVel);
+    public void setTimeStep(double timeStep) { this.timeStep = timeStep; }
+    public double getTimeStep() { return timeStep; }
+    public Trajectory getTruePos() { return truePos; }
+
+    // 选择 agent 近邻查询使用的索引，障碍物查询始终使用 kd 树
+    public void setNeighborIndex(NeighborIndex.Type type) {
+        neighborIndexType = type;
+        switch (type) {
+            case GRID:
+                neighborIndex = new SpatialHashGrid(this);
+                break;
+            default:
+                neighborIndex = kdTree;
+                break;
         }
     }
 
+    // parallelism <= 1 时按顺序执行；并行结果与顺序执行完全一致
+    public void setParallelism(int parallelism) {
+        if (pool != null)
+            pool.shutdown();
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    // 关闭步内并行的线程池，之后按顺序执行；丢弃设置过 parallelism 的模拟器前调用
+    public void shutdown() {
+        setParallelism(1);
+    }
+
+    // 打开或关闭（null）doStep 的分阶段统计
+    public void setMetrics(StepMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public StepMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setTruePosThenCalcVel(List<List<Vector2D>> truePos) {
+        setTruePos(new SparseTrajectory(truePos));
+    }
+
+    public void setTruePos(Trajectory truePos) {
+        this.truePos = truePos;
+        aliveTimeline = null;
+    }
+
     public void addAgent(int ID, Vector2D position, Vector2D goal,
                          double neighborDistance, int maxNeighbors,
                          double timeHorizonAgents, double timeHorizonObstacles,
@@ -87,20 +175,18 @@ public class Simulator {
                          int start, int end, Vector2D velocity) {
         Agent agent = new Agent(this);
         agent.id = ID;
-        agent.maxNeighbors = maxNeighbors;
-        agent.prefSpeed = prefSpeed;
-        agent.maxSpeed = maxSpeed;
-        agent.neighborDistance = neighborDistance;
-        agent.position = position;
-        agent.goal = goal;
-        agent.radius = radius;
-        agent.timeHorizonAgents = timeHorizonAgents;
-        agent.timeHorizonObstacles = timeHorizonObstacles;
-        agent.velocity = velocity;
+        store.setPara(agent.slot, radius, neighborDistance, maxNeighbors, timeHorizonAgents, timeHorizonObstacles, prefSpeed);
+        store.maxSpeed[agent.slot] = maxSpeed;
+        store.goalX[agent.slot] = goal.getX();
+        store.goalY[agent.slot] = goal.getY();
+        agent.setPos(position.getX(), position.getY());
+        agent.setVel(velocity.getX(), velocity.getY());
         agent.start = start;
         agent.end = end;
         agents.add(agent);
         oriAgents.add(agent);
+        invalidateActive();
+        aliveTimeline = null;
     }
 
     public int addObstacle(List<Vector2D> vertices) {
@@ -143,84 +229,236 @@ public class Simulator {
         return obstacleId;
     }
 
-    public void processObstacles() { kdTree.buildObstacleTree(); }
+    public void processObstacles() {
+        obstacleTree = new ObstacleTree(obstacles);
+        if (obstacleGrid != null)
+            obstacleGrid = new ObstacleGrid(obstacleTree, obstacleGrid.maxRange, obstacleGrid.cellSize);
+    }
+
+    // 预计算障碍物近邻网格，maxRange 应覆盖 timeHorizonObstacles * maxSpeed + radius 的最大可能值，
+    // 超出的 agent 仍使用 BSP 树；maxRange <= 0 时关闭网格
+    public void setObstacleGrid(double maxRange, double cellSize) {
+        obstacleGrid = maxRange > 0 ? new ObstacleGrid(obstacleTree, maxRange, cellSize) : null;
+    }
+
+    public void setObstacleGrid(double maxRange) {
+        setObstacleGrid(maxRange, 0.5 * maxRange);
+    }
 
     public double doStepWithGroup(int stFrame, int edFrame, List<Integer> memIDs) {
         double diff = 0;
 
         for (int f = stFrame; f < edFrame; f++) {
+            checkInterrupted();
             // 只把出现的且未到达终点的放入 RVO 模拟
-            agents = new ArrayList<>();
-            for (Agent a : oriAgents) {
-                if (a.canShowUp(f) && !a.reachedGoal())
-                    agents.add(a);
-            }
+            updateActive(f);
 
             // 阶段1：设置偏好速度
             for (Agent a : agents)
                 a.setPreferredVelocity();
 
-            // 阶段2：构建kd树以便查找近邻
-            kdTree.buildAgentTree();
+            // 阶段2：构建空间索引以便查找近邻
+            neighborIndex.build();
 
             // 阶段3：感知近邻并决策一个新速度
-            for (int i = 0; i < agents.size(); i++) {
-                final Agent agent = agents.get(i);
-                agent.computeNeighbors();
-                agent.computeNewVelocity();
-            }
+            forEachAgent(PHASE_VELOCITY, f, agents);
 
             // 阶段4：更新位置和速度
-            for (Agent a : agents)
-                a.update();
+            forEachAgent(PHASE_UPDATE, f, agents);
 
             // 更新位置后，要和真实的下一帧比较，所以是 f+1
-            List<Vector2D> curStepTruePos = truePos.get(f+1);
             for (int i = 0; i < memIDs.size(); i++) {
                 int id = memIDs.get(i);
-                double t = curStepTruePos.get(id).distance(oriAgents.get(id).getPosition());
-                diff += t;
+                Agent a = oriAgents.get(id);
+                double dx = store.posX[a.slot] - truePos.getX(f+1, id);
+                double dy = store.posY[a.slot] - truePos.getY(f+1, id);
+                diff += FastMath.sqrt(dx * dx + dy * dy);
             }
         }
         return diff;
     }
 
-    public double doStep(int stFrame, int edFrame) {
+    // 只模拟小组及可能影响它的 agent，其余 agent 按真实轨迹回放、不求解 ORCA，结果与 doStepWithGroup 相同。
+    // 一帧内影响最多传播 perFrame = 最大近邻距离 + 最大速度 * timeStep + 窗口内真实轨迹的最大单帧位移，
+    // 多跳的传播也包含在内：agent 在出现的第一帧（窗口第一帧或之后刚出现时）与小组成员的距离都超过
+    // (edFrame - f) * perFrame 时，它的模拟与回放的差别在窗口结束前传不到小组，按真实轨迹回放；否则从这一帧起一直模拟。
+    // 每个 agent 只在出现的第一帧判断一次，不会从回放中途切换为模拟。
+    // 只有 (edFrame - stFrame) * perFrame 小于场景尺度时才能排除 agent，长窗口下通常等同于完整模拟，标定时用下面的近似版本
+    public double doStepWithGroupROI(int stFrame, int edFrame, List<Integer> memIDs) {
+        return doStepWithGroupROI(stFrame, edFrame, memIDs, 0);
+    }
+
+    // 近似版本：影响范围固定为 horizon * perFrame，每帧重新判断，窗口中途才进入范围的 agent 从真实状态开始模拟，
+    // 结果与 doStepWithGroup 不同但只模拟小组附近的 agent。horizon <= 0 时与精确版本相同
+    public double doStepWithGroupROI(int stFrame, int edFrame, List<Integer> memIDs, int horizon) {
         double diff = 0;
 
+        double maxNeighborDist = 0, maxSpeed = 0, maxTrueStep = 0;
+        for (int i = 0; i < oriAgents.size(); i++) {
+            final Agent a = oriAgents.get(i);
+            maxNeighborDist = Math.max(maxNeighborDist, store.neighborDistance(a.slot));
+            maxSpeed = Math.max(maxSpeed, store.maxSpeed[a.slot]);
+            // 回放的 agent 按真实轨迹移动，速度不受 maxSpeed 限制
+            for (int f = Math.max(stFrame, a.start), last = Math.min(edFrame, a.end); f < last; f++) {
+                final double dx = truePos.getX(f+1, i) - truePos.getX(f, i);
+                final double dy = truePos.getY(f+1, i) - truePos.getY(f, i);
+                maxTrueStep = Math.max(maxTrueStep, FastMath.sqrt(dx * dx + dy * dy));
+            }
+        }
+        final double perFrame = maxNeighborDist + maxSpeed * timeStep + maxTrueStep;
+        final double invTimestep = 1.0 / timeStep;
+
+        // 以 oriAgents 的下标为索引；精确版本中 decided 标记已在出现的第一帧判断过的 agent
+        final boolean[] inRoi = new boolean[oriAgents.size()];
+        final boolean[] decided = new boolean[oriAgents.size()];
+        final int[] members = new int[memIDs.size()];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = oriAgents.get(memIDs.get(i)).slot;
+            inRoi[memIDs.get(i)] = true;
+        }
+
+        final List<Agent> simulated = new ArrayList<>();
+        final List<Integer> replayed = new ArrayList<>();
+
         for (int f = stFrame; f < edFrame; f++) {
-            // 只把出现的且未到达终点的放入 RVO 模拟
-            agents = new ArrayList<>();
-            for (Agent a : oriAgents) {
-                if (a.canShowUp(f) && !a.reachedGoal())
-                    agents.add(a);
+            checkInterrupted();
+            // 扩充感兴趣区域：当前帧位于小组成员影响范围内的 agent
+            final double reach = (horizon > 0 ? Math.min(horizon, edFrame - f) : edFrame - f) * perFrame;
+            final double reachSq = reach * reach;
+            for (int i = 0; i < oriAgents.size(); i++) {
+                if (inRoi[i] || decided[i])
+                    continue;
+                final Agent a = oriAgents.get(i);
+                if (!a.canShowUp(f))
+                    continue;
+                if (horizon <= 0)
+                    decided[i] = true;
+                final double x = store.posX[a.slot];
+                final double y = store.posY[a.slot];
+                for (int slot : members) {
+                    final double dx = x - store.posX[slot];
+                    final double dy = y - store.posY[slot];
+                    if (dx * dx + dy * dy <= reachSq) {
+                        inRoi[i] = true;
+                        break;
+                    }
+                }
+            }
+
+            // 只把出现的且未到达终点的放入 RVO 模拟，其中 ROI 之外的按真实轨迹回放
+            updateActive(f);
+            simulated.clear();
+            replayed.clear();
+            for (Agent a : agents) {
+                if (inRoi[a.slot])
+                    simulated.add(a);
+                else
+                    replayed.add(a.slot);
             }
 
             // 阶段1：设置偏好速度
-            for (Agent a : agents)
+            for (Agent a : simulated)
                 a.setPreferredVelocity();
 
-            // 阶段2：构建kd树以便查找近邻
-            kdTree.buildAgentTree();
+            // 阶段2：构建空间索引，回放的 agent 也作为近邻参与
+            neighborIndex.build();
 
-            // 阶段3：感知近邻并决策一个新速度
-            for (int i = 0; i < agents.size(); i++) {
-                final Agent agent = agents.get(i);
-                agent.computeNeighbors();
-                agent.computeNewVelocity();
+            // 阶段3：只为 ROI 内的 agent 感知近邻并决策新速度
+            forEachAgent(PHASE_VELOCITY, f, simulated);
+
+            // 阶段4：ROI 内的 agent 更新位置和速度，其余 agent 直接取真实的下一帧
+            forEachAgent(PHASE_UPDATE, f, simulated);
+            for (int i : replayed) {
+                final Agent a = oriAgents.get(i);
+                final double x = truePos.getX(f+1, i);
+                final double y = truePos.getY(f+1, i);
+                a.setVel((x - truePos.getX(f, i)) * invTimestep, (y - truePos.getY(f, i)) * invTimestep);
+                a.setPos(x, y);
+            }
+
+            // 更新位置后，要和真实的下一帧比较，所以是 f+1
+            for (int i = 0; i < memIDs.size(); i++) {
+                int id = memIDs.get(i);
+                Agent a = oriAgents.get(id);
+                double dx = store.posX[a.slot] - truePos.getX(f+1, id);
+                double dy = store.posY[a.slot] - truePos.getY(f+1, id);
+                diff += FastMath.sqrt(dx * dx + dy * dy);
             }
+        }
+        return diff;
+    }
+
+    // 所在线程被中断时（例如 TaskScope 取消了子任务）在两帧之间停止，抛出 CancellationException，模拟器的状态停在该帧
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("simulation interrupted");
+    }
+
+    public double doStep(int stFrame, int edFrame) {
+        return doStep(stFrame, edFrame, null).score;
+    }
+
+    public EvalResult doStep(int stFrame, int edFrame, final double cutoff) {
+        return doStep(stFrame, edFrame, new DoubleSupplier() {
+            @Override
+            public double getAsDouble() {
+                return cutoff;
+            }
+        });
+    }
+
+    // 每帧结束后用 cutoff 的当前值检查误差下界，下界超过 cutoff 时停止模拟并返回该下界；
+    // cutoff 可以在模拟过程中变小（例如种群中第 k 好的成绩），为 null 时总是跑完整个区间
+    public EvalResult doStep(int stFrame, int edFrame, DoubleSupplier cutoff) {
+        final StepMetrics metrics = this.metrics;
+
+        for (int f = stFrame; f < edFrame; f++) {
+            checkInterrupted();
+            long t = metrics != null ? System.nanoTime() : 0;
+
+            // 只把出现的且未到达终点的放入 RVO 模拟
+            updateActive(f);
+            final List<Agent> stepped = steppedAgents();
+
+            // 阶段1：设置偏好速度
+            for (Agent a : stepped)
+                a.setPreferredVelocity();
+            if (metrics != null)
+                t = lap(StepMetrics.PHASE_PREF_VELOCITY, t);
+
+            // 阶段2：构建空间索引以便查找近邻
+            neighborIndex.build();
+            if (metrics != null)
+                t = lap(StepMetrics.PHASE_BUILD_INDEX, t);
 
+            // 阶段3：感知近邻并决策一个新速度
+            forEachAgent(PHASE_VELOCITY, f, stepped);
+            if (metrics != null)
+                t = lap(StepMetrics.PHASE_VELOCITY, t);
 
             // 更新位置，同时和真实的下一帧比较，所以是 f+1
-            List<Vector2D> curStepTruePos = truePos.get(f+1);
-            List<Double> truePosDiff = RDScene.allTruePosDiff.get(f);
-            for (Agent a : agents) {
-                int id = a.getId();
-                a.update();
-                a.calcDiff(curStepTruePos.get(id), truePosDiff.get(id));
+            forEachAgent(PHASE_UPDATE_DIFF, f, stepped);
+            if (metrics != null) {
+                lap(StepMetrics.PHASE_UPDATE, t);
+                recordFrame(metrics, f);
+            }
+
+            if (cutoff != null && f + 1 < edFrame) {
+                final double c = cutoff.getAsDouble();
+                if (c < Double.POSITIVE_INFINITY) {
+                    final double bound = lowerBound(f + 1, edFrame);
+                    if (bound > c)
+                        return new EvalResult(bound, true, f + 1 - stFrame);
+                }
             }
         }
 
+        return new EvalResult(getScore(), false, edFrame - stFrame);
+    }
+
+    // 按各 agent 当前的 diff 和 goFrames 计算的 doStep 误差
+    public double getScore() {
+        double diff = 0;
         int people = 0;
         for (Agent a : oriAgents)
             if (a.goFrames > 0) {
@@ -231,14 +469,281 @@ public class Simulator {
         return diff / people;
     }
 
+    // 模拟到 next 帧之前时，doStep 最终误差的下界：
+    // 每个 agent 的 diff 只增不减，goFrames 最多再增加剩余可模拟的帧数，人数最多为已出现的加上还可能出现的
+    private double lowerBound(int next, int edFrame) {
+        double sum = 0;
+        int maxPeople = 0;
+        for (Agent a : oriAgents) {
+            final int remaining = a.maxRemainingFrames(next, edFrame);
+            if (a.goFrames > 0 || remaining > 0)
+                maxPeople++;
+            if (a.goFrames > 0)
+                sum += (a.diff / (a.goFrames + remaining));
+        }
+        return maxPeople == 0 ? 0 : sum / maxPeople;
+    }
+
+    private long lap(int phase, long t) {
+        final long now = System.nanoTime();
+        framePhaseNanos[phase] = now - t;
+        return now;
+    }
+
+    // 汇总本帧各 solver 的计数，累加到 metrics 并提交 JFR 事件
+    private void recordFrame(StepMetrics metrics, int frame) {
+        long neighbors = solver.numNeighbors;
+        long obstacleLines = solver.numObstacleLines;
+        long fallbacks = solver.numFallbacks;
+        solver.numNeighbors = solver.numObstacleLines = solver.numFallbacks = 0;
+        for (OrcaSolver s : chunkSolvers) {
+            neighbors += s.numNeighbors;
+            obstacleLines += s.numObstacleLines;
+            fallbacks += s.numFallbacks;
+            s.numNeighbors = s.numObstacleLines = s.numFallbacks = 0;
+        }
+
+        metrics.addFrame(framePhaseNanos, agents.size(), neighbors, obstacleLines, fallbacks);
+
+        final StepEvent event = new StepEvent();
+        if (event.isEnabled()) {
+            event.frame = frame;
+            event.activeAgents = agents.size();
+            event.prefVelocityNanos = framePhaseNanos[StepMetrics.PHASE_PREF_VELOCITY];
+            event.buildIndexNanos = framePhaseNanos[StepMetrics.PHASE_BUILD_INDEX];
+            event.velocityNanos = framePhaseNanos[StepMetrics.PHASE_VELOCITY];
+            event.updateNanos = framePhaseNanos[StepMetrics.PHASE_UPDATE];
+            event.neighbors = neighbors;
+            event.obstacleLines = obstacleLines;
+            event.fallbacks = fallbacks;
+            event.commit();
+        }
+    }
+
+    private void forEachAgent(int phase, int frame, List<Agent> agents) {
+        final int numAgents = agents.size();
+        final int numChunks = pool == null ? 1 : Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, numAgents / MIN_CHUNK_SIZE);
+
+        if (numChunks <= 1) {
+            runPhase(phase, frame, agents, 0, numAgents, solver);
+            return;
+        }
+
+        if (chunkSolvers.length < numChunks) {
+            OrcaSolver[] solvers = new OrcaSolver[numChunks];
+            System.arraycopy(chunkSolvers, 0, solvers, 0, chunkSolvers.length);
+            for (int i = chunkSolvers.length; i < numChunks; i++)
+                solvers[i] = new OrcaSolver();
+            chunkSolvers = solvers;
+        }
+
+        pool.invoke(new ChunkTask(phase, frame, agents, 0, numChunks, numChunks));
+    }
+
+    private void runPhase(int phase, int frame, List<Agent> agents, int from, int to, OrcaSolver solver) {
+        switch (phase) {
+            case PHASE_VELOCITY:
+                final boolean counting = metrics != null;
+                for (int i = from; i < to; i++) {
+                    final Agent agent = agents.get(i);
+                    agent.computeNeighbors();
+                    agent.computeNewVelocity(solver);
+                    if (counting) {
+                        solver.numNeighbors += agent.agentNeighbors.size;
+                        solver.numObstacleLines += solver.lastObstacleLines;
+                        if (solver.lastFallback)
+                            solver.numFallbacks++;
+                    }
+                }
+                break;
+            case PHASE_UPDATE:
+                for (int i = from; i < to; i++)
+                    agents.get(i).update();
+                break;
+            case PHASE_UPDATE_DIFF:
+                final Trajectory truePos = this.truePos;
+                final SparseMatrix truePosDiff = RDScene.allTruePosDiff;
+                for (int i = from; i < to; i++) {
+                    final Agent a = agents.get(i);
+                    int id = a.getId();
+                    a.update();
+                    a.calcDiff(truePos.getX(frame+1, id), truePos.getY(frame+1, id), truePosDiff.get(frame, id));
+                }
+                break;
+        }
+    }
+
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int phase, frame, lo, hi, numChunks;
+        private final List<Agent> agents;
+
+        ChunkTask(int phase, int frame, List<Agent> agents, int lo, int hi, int numChunks) {
+            this.phase = phase;
+            this.frame = frame;
+            this.agents = agents;
+            this.lo = lo;
+            this.hi = hi;
+            this.numChunks = numChunks;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                final int numAgents = agents.size();
+                runPhase(phase, frame, agents, lo * numAgents / numChunks, (lo + 1) * numAgents / numChunks, chunkSolvers[lo]);
+                return;
+            }
+
+            final int mid = (lo + hi) >>> 1;
+            invokeAll(new ChunkTask(phase, frame, agents, lo, mid, numChunks), new ChunkTask(phase, frame, agents, mid, hi, numChunks));
+        }
+    }
+
+    // agents 中 slot 小于 numStepped 的部分，agents 按 slot 升序，因此是一个前缀
+    private List<Agent> steppedAgents() {
+        if (numStepped >= oriAgents.size())
+            return agents;
+
+        int lo = 0, hi = agents.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (agents.get(mid).slot < numStepped)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return agents.subList(0, lo);
+    }
+
+    // 只保留前 n 个 agent（Region 用来丢弃上一帧的 halo 和迁出的 agent）
+    void truncateAgents(int n) {
+        while (oriAgents.size() > n)
+            spareAgents.add(oriAgents.remove(oriAgents.size() - 1));
+        store.size = n;
+        agentsChanged();
+    }
+
+    // 在末尾追加一个 agent，属性由调用者填写；slot 仍等于下标
+    Agent appendAgent() {
+        final Agent agent;
+        if (spareAgents.isEmpty()) {
+            agent = new Agent(this);
+        } else {
+            agent = spareAgents.remove(spareAgents.size() - 1);
+            store.ownPara();
+            store.size++;
+        }
+        oriAgents.add(agent);
+        agentsChanged();
+        return agent;
+    }
+
+    private void agentsChanged() {
+        invalidateActive();
+        spawnOrder = new int[0];
+        aliveTimeline = null;
+    }
+
+    // 外部修改了 agent 的位置后调用，下一帧重新扫描活跃集合
+    void invalidateActive() {
+        activeFrame = -1;
+    }
+
+    // 令 agents 为第 frame 帧出现且未到达终点的 agent，顺序与 oriAgents 一致。
+    // 连续的帧只处理新出现和刚到达终点的 agent，否则整体重建
+    private void updateActive(int frame) {
+        if (spawnOrder.length != oriAgents.size())
+            buildSpawnOrder();
+
+        if (frame != activeFrame) {
+            agents = new ArrayList<>();
+            for (Agent a : oriAgents) {
+                if (a.canShowUp(frame) && !a.reachedGoal())
+                    agents.add(a);
+            }
+
+            spawnCursor = 0;
+            while (spawnCursor < spawnOrder.length && oriAgents.get(spawnOrder[spawnCursor]).start <= frame)
+                spawnCursor++;
+        } else {
+            // 到达终点的 agent 不再移动，移除后不会再回来
+            int n = 0;
+            for (int i = 0; i < agents.size(); i++) {
+                final Agent a = agents.get(i);
+                if (!a.reachedGoal())
+                    agents.set(n++, a);
+            }
+            while (agents.size() > n)
+                agents.remove(agents.size() - 1);
+
+            // 本帧新出现的 agent，按 slot 插入到对应位置
+            while (spawnCursor < spawnOrder.length && oriAgents.get(spawnOrder[spawnCursor]).start <= frame) {
+                final Agent a = oriAgents.get(spawnOrder[spawnCursor++]);
+                if (a.reachedGoal())
+                    continue;
+
+                int lo = 0, hi = agents.size();
+                while (lo < hi) {
+                    final int mid = (lo + hi) >>> 1;
+                    if (agents.get(mid).slot < a.slot)
+                        lo = mid + 1;
+                    else
+                        hi = mid;
+                }
+                agents.add(lo, a);
+            }
+        }
+
+        activeFrame = frame + 1;
+    }
+
+    private void buildSpawnOrder() {
+        final int n = oriAgents.size();
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = ((long) oriAgents.get(i).start << 32) | i;
+        Arrays.sort(keys);
+
+        spawnOrder = new int[n];
+        for (int i = 0; i < n; i++)
+            spawnOrder[i] = (int) keys[i];
+    }
+
+    // 第 i 帧位于真实位置时出现且未到达终点的人数，与 RDScene.getNumAlive 逐帧回放得到的结果相同
+    public int[] getAliveTimeline() {
+        if (aliveTimeline == null) {
+            final int numFrames = truePos.getNumFrames() - 1;
+            final int[] res = new int[Math.max(numFrames, 0)];
+            for (int i = 0; i < oriAgents.size(); i++) {
+                final Agent a = oriAgents.get(i);
+                for (int f = Math.max(a.start, 0); f < numFrames; f++) {
+                    final double dx = store.goalX[a.slot] - truePos.getX(f, i);
+                    final double dy = store.goalY[a.slot] - truePos.getY(f, i);
+                    if (!(FastMath.sqrt(dx * dx + dy * dy) < 0.1))
+                        res[f]++;
+                }
+            }
+            aliveTimeline = res;
+        }
+        return aliveTimeline.clone();
+    }
+
     public void resetTrue(int frame) {
         // 重新设置新状态，包括：position, velocity
-        List<Vector2D> curTrue = truePos.get(frame);
-        List<Vector2D> curVel = trueVel.get(frame);
+        // 某一帧的真实速度是上一帧到这一帧的速度，第一帧的速度为 0
+        double invTimestep = 1.0 / timeStep;
+        invalidateActive();
         for (int i = 0; i < oriAgents.size(); i++) {
             Agent a = oriAgents.get(i);
-            a.position = curTrue.get(i);
-            a.velocity = curVel.get(i);
+            double x = truePos.getX(frame, i);
+            double y = truePos.getY(frame, i);
+            a.setPos(x, y);
+            if (frame == 0)
+                a.setVel(0, 0);
+            else
+                a.setVel((x - truePos.getX(frame - 1, i)) * invTimestep, (y - truePos.getY(frame - 1, i)) * invTimestep);
             a.diff = 0;
             a.goFrames = 0;
         }
@@ -0,0 +1,165 @@
+package rvo;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+import java.util.List;
+
+// 均匀网格 + 空间哈希，重建为 O(n) 的计数排序
+class SpatialHashGrid implements NeighborIndex {
+    // 网格边长取 neighborDistance 的最大值，但平均每格的 agent 不超过这个数
+    private static final int TARGET_AGENTS_PER_CELL = 4;
+    // 同时不小于 neighborDistance 的 1/MAX_RINGS：agent 共线或只有一个时包围盒面积为 0，格子不能随之退化
+    private static final int MAX_RINGS = 8;
+    private static final double MIN_CELL_SIZE = 1e-3;
+
+    private final Simulator simRef;
+
+    private double cellSize = 1.0;
+    private double invCellSize = 1.0;
+    private int mask = 0;
+    // 有 agent 的格子范围，查询的圈数不超出这个范围
+    private int minCellX, maxCellX, minCellY, maxCellY;
+
+    // 按桶排好的 agent slot 及其所在网格，桶 b 对应 [bucketStart[b], bucketStart[b+1])
+    private int[] bucketStart = new int[2];
+    private int[] entries = new int[0];
+    private int[] entryCellX = new int[0];
+    private int[] entryCellY = new int[0];
+    private int[] agentBucket = new int[0];
+
+    SpatialHashGrid(Simulator sim) {
+        this.simRef = sim;
+    }
+
+    @Override
+    public void build() {
+        final List<Agent> agents = simRef.agents;
+        final int n = agents.size();
+        final AgentStore store = simRef.store;
+
+        if (entries.length < n) {
+            final int capacity = Math.max(2 * entries.length, n);
+            entries = new int[capacity];
+            entryCellX = new int[capacity];
+            entryCellY = new int[capacity];
+            agentBucket = new int[capacity];
+        }
+
+        double maxNeighborDist = 0.0;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final int slot = agents.get(i).slot;
+            maxNeighborDist = FastMath.max(maxNeighborDist, store.neighborDistance(slot));
+            minX = FastMath.min(minX, store.posX[slot]);
+            minY = FastMath.min(minY, store.posY[slot]);
+            maxX = FastMath.max(maxX, store.posX[slot]);
+            maxY = FastMath.max(maxY, store.posY[slot]);
+        }
+
+        cellSize = cellSize(maxNeighborDist, maxX - minX, maxY - minY, n);
+        invCellSize = 1.0 / cellSize;
+        if (n > 0) {
+            minCellX = cellOf(minX);
+            maxCellX = cellOf(maxX);
+            minCellY = cellOf(minY);
+            maxCellY = cellOf(maxY);
+        }
+
+        final int numBuckets = Integer.highestOneBit(Math.max(2 * n - 1, 1)) << 1;
+        mask = numBuckets - 1;
+        if (bucketStart.length < numBuckets + 1)
+            bucketStart = new int[numBuckets + 1];
+        Arrays.fill(bucketStart, 0, numBuckets + 1, 0);
+
+        for (int i = 0; i < n; i++) {
+            final int slot = agents.get(i).slot;
+            final int b = bucket(cellOf(store.posX[slot]), cellOf(store.posY[slot]));
+            agentBucket[i] = b;
+            bucketStart[b + 1]++;
+        }
+
+        for (int b = 0; b < numBuckets; b++)
+            bucketStart[b + 1] += bucketStart[b];
+
+        // 计数排序，借用 bucketStart[b] 作为写指针，写完后再整体右移一格恢复
+        for (int i = 0; i < n; i++) {
+            final int slot = agents.get(i).slot;
+            final int e = bucketStart[agentBucket[i]]++;
+            entries[e] = slot;
+            entryCellX[e] = cellOf(store.posX[slot]);
+            entryCellY[e] = cellOf(store.posY[slot]);
+        }
+
+        System.arraycopy(bucketStart, 0, bucketStart, 1, numBuckets);
+        bucketStart[0] = 0;
+    }
+
+    @Override
+    public void computeAgentNeighbors(Agent agent, double rangeSq) {
+        final double x = simRef.store.posX[agent.slot];
+        final double y = simRef.store.posY[agent.slot];
+        final int cx = cellOf(x);
+        final int cy = cellOf(y);
+        final int maxRing = maxRing((int) FastMath.ceil(FastMath.sqrt(rangeSq) * invCellSize), cx, cy, minCellX, maxCellX, minCellY, maxCellY);
+
+        // 由近及远逐圈查找，第 ring 圈的格子距离至少为 (ring - 1) * cellSize
+        rangeSq = queryCell(agent, x, y, cx, cy, rangeSq);
+
+        for (int ring = 1; ring <= maxRing; ring++) {
+            final double ringDist = (ring - 1) * cellSize;
+            if (ringDist * ringDist >= rangeSq)
+                break;
+
+            for (int i = -ring; i <= ring; i++) {
+                rangeSq = queryCell(agent, x, y, cx + i, cy - ring, rangeSq);
+                rangeSq = queryCell(agent, x, y, cx + i, cy + ring, rangeSq);
+            }
+
+            for (int j = -ring + 1; j < ring; j++) {
+                rangeSq = queryCell(agent, x, y, cx - ring, cy + j, rangeSq);
+                rangeSq = queryCell(agent, x, y, cx + ring, cy + j, rangeSq);
+            }
+        }
+    }
+
+    private double queryCell(Agent agent, double x, double y, int cx, int cy, double rangeSq) {
+        final double dx = FastMath.max(0.0, FastMath.max(cx * cellSize - x, x - (cx + 1) * cellSize));
+        final double dy = FastMath.max(0.0, FastMath.max(cy * cellSize - y, y - (cy + 1) * cellSize));
+
+        if (dx * dx + dy * dy >= rangeSq)
+            return rangeSq;
+
+        final int b = bucket(cx, cy);
+        for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+            if (entryCellX[e] == cx && entryCellY[e] == cy)
+                rangeSq = agent.insertAgentNeighbor(entries[e], rangeSq);
+        }
+
+        return rangeSq;
+    }
+
+    // 由 neighborDistance 的上界和 n 个 agent 的包围盒选取网格边长，FloatGrid 共用
+    static double cellSize(double maxNeighborDist, double width, double height, int n) {
+        double size = maxNeighborDist;
+        if (n > 0)
+            size = FastMath.min(size, FastMath.sqrt(width * height * TARGET_AGENTS_PER_CELL / n));
+        size = FastMath.max(size, maxNeighborDist / MAX_RINGS);
+        return size > MIN_CELL_SIZE ? size : MIN_CELL_SIZE;
+    }
+
+    // 查询 (cx, cy) 周围的圈数：覆盖查询半径所需的 rangeRings 圈，但不超出有 agent 的格子范围
+    static int maxRing(int rangeRings, int cx, int cy, int minCellX, int maxCellX, int minCellY, int maxCellY) {
+        final long occupied = Math.max(Math.max((long) cx - minCellX, (long) maxCellX - cx), Math.max((long) cy - minCellY, (long) maxCellY - cy));
+        return (int) Math.min(rangeRings, occupied);
+    }
+
+    private int cellOf(double v) {
+        return (int) FastMath.floor(v * invCellSize);
+    }
+
+    private int bucket(int cx, int cy) {
+        return (cx * 73856093 ^ cy * 19349663) & mask;
+    }
+}
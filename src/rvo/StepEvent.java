@@ -0,0 +1,46 @@
+package rvo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// 一帧模拟的 JFR 事件，只在 Simulator 打开了 StepMetrics 时提交
+@Name("rvo.Step")
+@Label("Simulation Step")
+@Category("CrowdSimulation")
+@StackTrace(false)
+class StepEvent extends Event {
+    @Label("Frame")
+    int frame;
+
+    @Label("Active Agents")
+    int activeAgents;
+
+    @Label("Preferred Velocity")
+    @Timespan(Timespan.NANOSECONDS)
+    long prefVelocityNanos;
+
+    @Label("Index Build")
+    @Timespan(Timespan.NANOSECONDS)
+    long buildIndexNanos;
+
+    @Label("Neighbors and Velocity")
+    @Timespan(Timespan.NANOSECONDS)
+    long velocityNanos;
+
+    @Label("Update and Diff")
+    @Timespan(Timespan.NANOSECONDS)
+    long updateNanos;
+
+    @Label("Neighbors Found")
+    long neighbors;
+
+    @Label("Obstacle Lines")
+    long obstacleLines;
+
+    @Label("LP3 Fallbacks")
+    long fallbacks;
+}
@@ -0,0 +1,105 @@
+package rvo;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+// Simulator.doStep 的分阶段耗时和计数，可以被多个 Simulator、多个线程同时累加。
+// 用 Simulator.setMetrics 打开，为 null（默认）时 doStep 不计时也不计数。
+// 打开时每帧还会提交 JFR 事件 rvo.Step，每个候选提交 rvo.CandidateEval，在 JFR 录制中启用后可见
+public final class StepMetrics {
+    // 阶段1 含活跃集合的更新；阶段3 为感知近邻并求解新速度；阶段4 为更新位置并计算误差
+    public static final int PHASE_PREF_VELOCITY = 0;
+    public static final int PHASE_BUILD_INDEX = 1;
+    public static final int PHASE_VELOCITY = 2;
+    public static final int PHASE_UPDATE = 3;
+    public static final int NUM_PHASES = 4;
+    private static final String[] PHASE_NAMES = {"prefVelocity", "buildIndex", "neighborsVelocity", "updateDiff"};
+
+    private final LongAdder[] phaseNanos = new LongAdder[NUM_PHASES];
+    private final LongAdder frames = new LongAdder();
+    // 每帧活跃 agent 数之和
+    private final LongAdder agentFrames = new LongAdder();
+    private final LongAdder neighbors = new LongAdder();
+    private final LongAdder obstacleLines = new LongAdder();
+    // ORCA 线性规划退回 linearProgram3 的次数
+    private final LongAdder fallbacks = new LongAdder();
+
+    // RDScene 评估的候选
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder candidateNanos = new LongAdder();
+    private final LongAccumulator maxCandidateNanos = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    public StepMetrics() {
+        for (int i = 0; i < NUM_PHASES; i++)
+            phaseNanos[i] = new LongAdder();
+    }
+
+    void addFrame(long[] framePhaseNanos, int activeAgents, long frameNeighbors, long frameObstacleLines, long frameFallbacks) {
+        for (int i = 0; i < NUM_PHASES; i++)
+            phaseNanos[i].add(framePhaseNanos[i]);
+        frames.increment();
+        agentFrames.add(activeAgents);
+        neighbors.add(frameNeighbors);
+        obstacleLines.add(frameObstacleLines);
+        fallbacks.add(frameFallbacks);
+    }
+
+    public void addCandidate(long nanos) {
+        candidates.increment();
+        candidateNanos.add(nanos);
+        maxCandidateNanos.accumulate(nanos);
+    }
+
+    public long getPhaseNanos(int phase) { return phaseNanos[phase].sum(); }
+    public long getFrames() { return frames.sum(); }
+    public long getAgentFrames() { return agentFrames.sum(); }
+    public long getNeighbors() { return neighbors.sum(); }
+    public long getObstacleLines() { return obstacleLines.sum(); }
+    public long getFallbacks() { return fallbacks.sum(); }
+    public long getCandidates() { return candidates.sum(); }
+    public long getCandidateNanos() { return candidateNanos.sum(); }
+    public long getMaxCandidateNanos() { return maxCandidateNanos.get(); }
+
+    public long getTotalNanos() {
+        long sum = 0;
+        for (int i = 0; i < NUM_PHASES; i++)
+            sum += getPhaseNanos(i);
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_PHASES; i++)
+            phaseNanos[i].reset();
+        frames.reset();
+        agentFrames.reset();
+        neighbors.reset();
+        obstacleLines.reset();
+        fallbacks.reset();
+        candidates.reset();
+        candidateNanos.reset();
+        maxCandidateNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        final long total = getTotalNanos();
+        final long agentFrames = Math.max(getAgentFrames(), 1);
+        final StringBuilder sb = new StringBuilder();
+        sb.append("frames=").append(getFrames()).append(" agentFrames=").append(getAgentFrames());
+        for (int i = 0; i < NUM_PHASES; i++) {
+            sb.append(String.format(" %s=%.3fms(%.1f%%)", PHASE_NAMES[i], getPhaseNanos(i) / 1e6, total > 0 ? 100.0 * getPhaseNanos(i) / total : 0.0));
+        }
+        sb.append(String.format(" ns/agentFrame=%.1f neighbors/agent=%.2f obstacleLines/agent=%.2f fallbacks=%d",
+                (double) total / agentFrames, (double) getNeighbors() / agentFrames, (double) getObstacleLines() / agentFrames, getFallbacks()));
+        if (getCandidates() > 0) {
+            sb.append(String.format(" candidates=%d avg=%.3fms max=%.3fms", getCandidates(), getCandidateNanos() / 1e6 / getCandidates(), getMaxCandidateNanos() / 1e6));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package rvo;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Kernels 的 SIMD 实现，编译和运行都需要 --add-modules jdk.incubator.vector。
+// 只使用逐元素的加减乘除和 sqrt（均为正确舍入，且不合并为 FMA），两个分支都计算后按掩码选择，
+// 点积按 MathArrays.linearCombination 的步骤逐通道计算，因此与标量实现逐位相同。
+// 只由 Kernels 通过反射加载，其他类不能直接引用本类
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // 与 MathArrays.linearCombination 相同，保留高 26 位尾数作为高位部分
+    private static final long HIGH_MASK = (-1L) << 27;
+
+    @Override
+    String name() {
+        return "vector" + SPECIES.length();
+    }
+
+    @Override
+    void distanceSq(double[] xs, double[] ys, int begin, int end, double x, double y, double[] out) {
+        final DoubleVector vx = DoubleVector.broadcast(SPECIES, x);
+        final DoubleVector vy = DoubleVector.broadcast(SPECIES, y);
+
+        int i = begin;
+        for (final int upper = begin + SPECIES.loopBound(end - begin); i < upper; i += SPECIES.length()) {
+            final DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, i).sub(vx);
+            final DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, i).sub(vy);
+            dx.mul(dx).add(dy.mul(dy)).intoArray(out, i - begin);
+        }
+
+        for (; i < end; i++) {
+            final double dx = xs[i] - x;
+            final double dy = ys[i] - y;
+            out[i - begin] = dx * dx + dy * dy;
+        }
+    }
+
+    @Override
+    void agentLines(OrcaSolver.NeighborBatch batch, int n, double velX, double velY, double invTimeHorizon, double invTimeStep, OrcaSolver.Lines lines) {
+        final int base = lines.size;
+        lines.ensureCapacity(base + n);
+
+        final DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        final DoubleVector half = DoubleVector.broadcast(SPECIES, 0.5);
+        final DoubleVector vVelX = DoubleVector.broadcast(SPECIES, velX);
+        final DoubleVector vVelY = DoubleVector.broadcast(SPECIES, velY);
+        final DoubleVector vInvTimeHorizon = DoubleVector.broadcast(SPECIES, invTimeHorizon);
+        final DoubleVector vInvTimeStep = DoubleVector.broadcast(SPECIES, invTimeStep);
+
+        int i = 0;
+        for (final int upper = SPECIES.loopBound(n); i < upper; i += SPECIES.length()) {
+            final DoubleVector relPosX = DoubleVector.fromArray(SPECIES, batch.relPosX, i);
+            final DoubleVector relPosY = DoubleVector.fromArray(SPECIES, batch.relPosY, i);
+            final DoubleVector relVelX = DoubleVector.fromArray(SPECIES, batch.relVelX, i);
+            final DoubleVector relVelY = DoubleVector.fromArray(SPECIES, batch.relVelY, i);
+            final DoubleVector combinedRadius = DoubleVector.fromArray(SPECIES, batch.combinedRadius, i);
+
+            final DoubleVector distanceSq = relPosX.mul(relPosX).add(relPosY.mul(relPosY));
+            final DoubleVector combinedRadiusSq = combinedRadius.mul(combinedRadius);
+            final VectorMask<Double> noCollision = distanceSq.compare(VectorOperators.GT, combinedRadiusSq);
+
+            // 未碰撞：截断圆或两条腿
+            final DoubleVector wX = relVelX.sub(vInvTimeHorizon.mul(relPosX));
+            final DoubleVector wY = relVelY.sub(vInvTimeHorizon.mul(relPosY));
+            final DoubleVector wLengthSq = wX.mul(wX).add(wY.mul(wY));
+            final DoubleVector dotProduct1 = dot(wX, wY, relPosX, relPosY);
+            final VectorMask<Double> cutOff = dotProduct1.compare(VectorOperators.LT, 0.0)
+                    .and(dotProduct1.mul(dotProduct1).compare(VectorOperators.GT, combinedRadiusSq.mul(wLengthSq)));
+
+            final DoubleVector wLength = wLengthSq.sqrt();
+            final DoubleVector invWLength = one.div(wLength);
+            final DoubleVector unitWX = invWLength.mul(wX);
+            final DoubleVector unitWY = invWLength.mul(wY);
+            final DoubleVector k = combinedRadius.mul(vInvTimeHorizon).sub(wLength);
+
+            final DoubleVector leg = distanceSq.sub(combinedRadiusSq).sqrt();
+            final VectorMask<Double> leftLeg = relPosX.mul(wY).sub(relPosY.mul(wX)).compare(VectorOperators.GT, 0.0);
+            final DoubleVector invDistanceSq = one.div(distanceSq);
+            final DoubleVector leftDirX = invDistanceSq.mul(relPosX.mul(leg).sub(relPosY.mul(combinedRadius)));
+            final DoubleVector leftDirY = invDistanceSq.mul(relPosX.mul(combinedRadius).add(relPosY.mul(leg)));
+            final DoubleVector rightDirX = invDistanceSq.neg().mul(relPosX.mul(leg).add(relPosY.mul(combinedRadius)));
+            final DoubleVector rightDirY = invDistanceSq.neg().mul(relPosX.neg().mul(combinedRadius).add(relPosY.mul(leg)));
+            final DoubleVector legDirX = rightDirX.blend(leftDirX, leftLeg);
+            final DoubleVector legDirY = rightDirY.blend(leftDirY, leftLeg);
+            final DoubleVector dotProduct2 = dot(relVelX, relVelY, legDirX, legDirY);
+
+            // 已碰撞：以一个时间步为截断
+            final DoubleVector cwX = relVelX.sub(vInvTimeStep.mul(relPosX));
+            final DoubleVector cwY = relVelY.sub(vInvTimeStep.mul(relPosY));
+            final DoubleVector cwLength = cwX.mul(cwX).add(cwY.mul(cwY)).sqrt();
+            final DoubleVector invCwLength = one.div(cwLength);
+            final DoubleVector unitCwX = invCwLength.mul(cwX);
+            final DoubleVector unitCwY = invCwLength.mul(cwY);
+            final DoubleVector ck = combinedRadius.mul(vInvTimeStep).sub(cwLength);
+
+            final DoubleVector dirX = unitCwY.blend(legDirX.blend(unitWY, cutOff), noCollision);
+            final DoubleVector dirY = unitCwX.neg().blend(legDirY.blend(unitWX.neg(), cutOff), noCollision);
+            final DoubleVector uX = ck.mul(unitCwX).blend(dotProduct2.mul(legDirX).sub(relVelX).blend(k.mul(unitWX), cutOff), noCollision);
+            final DoubleVector uY = ck.mul(unitCwY).blend(dotProduct2.mul(legDirY).sub(relVelY).blend(k.mul(unitWY), cutOff), noCollision);
+
+            vVelX.add(half.mul(uX)).intoArray(lines.pointX, base + i);
+            vVelY.add(half.mul(uY)).intoArray(lines.pointY, base + i);
+            dirX.intoArray(lines.dirX, base + i);
+            dirY.intoArray(lines.dirY, base + i);
+        }
+
+        agentLines(batch, i, n, velX, velY, invTimeHorizon, invTimeStep, lines, base);
+        lines.size = base + n;
+    }
+
+    // 逐通道的 MathUtil.dot(x1, y1, x2, y2)，即 MathArrays.linearCombination(x1, x2, y1, y2)
+    private static DoubleVector dot(DoubleVector x1, DoubleVector y1, DoubleVector x2, DoubleVector y2) {
+        final DoubleVector a1High = high(x1);
+        final DoubleVector a1Low = x1.sub(a1High);
+        final DoubleVector b1High = high(x2);
+        final DoubleVector b1Low = x2.sub(b1High);
+        final DoubleVector prod1High = x1.mul(x2);
+        final DoubleVector prod1Low = a1Low.mul(b1Low).sub(prod1High.sub(a1High.mul(b1High)).sub(a1Low.mul(b1High)).sub(a1High.mul(b1Low)));
+
+        final DoubleVector a2High = high(y1);
+        final DoubleVector a2Low = y1.sub(a2High);
+        final DoubleVector b2High = high(y2);
+        final DoubleVector b2Low = y2.sub(b2High);
+        final DoubleVector prod2High = y1.mul(y2);
+        final DoubleVector prod2Low = a2Low.mul(b2Low).sub(prod2High.sub(a2High.mul(b2High)).sub(a2Low.mul(b2High)).sub(a2High.mul(b2Low)));
+
+        final DoubleVector s12High = prod1High.add(prod2High);
+        final DoubleVector s12Prime = s12High.sub(prod2High);
+        final DoubleVector s12Low = prod2High.sub(s12High.sub(s12Prime)).add(prod1High.sub(s12Prime));
+
+        final DoubleVector result = s12High.add(prod1Low.add(prod2Low).add(s12Low));
+        // 有无穷大时上面的补偿项为 NaN，与 linearCombination 一样退回朴素公式
+        return result.blend(prod1High.add(prod2High), result.test(VectorOperators.IS_NAN));
+    }
+
+    private static DoubleVector high(DoubleVector v) {
+        return v.reinterpretAsLongs().and(HIGH_MASK).reinterpretAsDoubles();
+    }
+}
@@ -0,0 +1,45 @@
+package utilPac;
+
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+
+import java.util.List;
+
+// 内存中的轨迹，按帧存放 x0 y0 x1 y1 ...
+public class ArrayTrajectory implements Trajectory {
+    private final int numFrames, numAgents;
+    private final double[] xy;
+
+    public ArrayTrajectory(int numFrames, int numAgents, double[] xy) {
+        if (xy.length != 2 * numFrames * numAgents)
+            throw new IllegalArgumentException("expected " + 2 * numFrames * numAgents + " values, got " + xy.length);
+        this.numFrames = numFrames;
+        this.numAgents = numAgents;
+        this.xy = xy;
+    }
+
+    public ArrayTrajectory(List<List<Vector2D>> pos) {
+        numFrames = pos.size();
+        numAgents = numFrames == 0 ? 0 : pos.get(0).size();
+        xy = new double[2 * numFrames * numAgents];
+
+        int k = 0;
+        for (List<Vector2D> cpos : pos) {
+            for (Vector2D p : cpos) {
+                xy[k++] = p.getX();
+                xy[k++] = p.getY();
+            }
+        }
+    }
+
+    @Override
+    public int getNumFrames() { return numFrames; }
+
+    @Override
+    public int getNumAgents() { return numAgents; }
+
+    @Override
+    public double getX(int frame, int agent) { return xy[2 * (frame * numAgents + agent)]; }
+
+    @Override
+    public double getY(int frame, int agent) { return xy[2 * (frame * numAgents + agent) + 1]; }
+}
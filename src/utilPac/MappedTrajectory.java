@@ -0,0 +1,97 @@
+package utilPac;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// 内存映射的二进制轨迹文件，数据由操作系统按需换入，多个线程可同时读取
+// 文件格式见 TrajectoryFile。单个映射不能超过 2GB，文件按整帧分段映射，每段不超过 MAX_SEGMENT_BYTES
+public class MappedTrajectory implements Trajectory {
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final int numFrames, numAgents;
+    // 每段的帧数，第 s 段从第 s * framesPerSegment 帧开始
+    private final int framesPerSegment;
+    // 二者只有一个不为 null
+    private final DoubleBuffer[] doubles;
+    private final FloatBuffer[] floats;
+
+    MappedTrajectory(Path path) throws IOException {
+        this(path, MAX_SEGMENT_BYTES);
+    }
+
+    MappedTrajectory(Path path, long maxSegmentBytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < TrajectoryFile.HEADER_SIZE)
+                throw new IOException(path + ": not a trajectory file");
+            final MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, TrajectoryFile.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt(0) != TrajectoryFile.MAGIC)
+                throw new IOException(path + ": not a trajectory file");
+            if (header.getInt(4) != TrajectoryFile.VERSION)
+                throw new IOException(path + ": unsupported trajectory version " + header.getInt(4));
+
+            numFrames = header.getInt(8);
+            numAgents = header.getInt(12);
+            final int bytesPerValue = header.getInt(16);
+            if (bytesPerValue != 8 && bytesPerValue != 4)
+                throw new IOException(path + ": unsupported value size " + bytesPerValue);
+
+            final long frameBytes = 2L * numAgents * bytesPerValue;
+            final long expected = TrajectoryFile.HEADER_SIZE + numFrames * frameBytes;
+            if (ch.size() != expected)
+                throw new IOException(path + ": expected " + expected + " bytes, got " + ch.size());
+            if (frameBytes > maxSegmentBytes)
+                throw new IOException(path + ": one frame takes " + frameBytes + " bytes, more than a mapped segment");
+
+            framesPerSegment = frameBytes == 0 ? Math.max(numFrames, 1) : (int) Math.min(Math.max(numFrames, 1), maxSegmentBytes / frameBytes);
+            final int numSegments = (numFrames + framesPerSegment - 1) / framesPerSegment;
+            doubles = bytesPerValue == 8 ? new DoubleBuffer[numSegments] : null;
+            floats = bytesPerValue == 4 ? new FloatBuffer[numSegments] : null;
+
+            for (int s = 0; s < numSegments; s++) {
+                final long first = (long) s * framesPerSegment;
+                final long frames = Math.min(framesPerSegment, numFrames - first);
+                final MappedByteBuffer segment = ch.map(FileChannel.MapMode.READ_ONLY, TrajectoryFile.HEADER_SIZE + first * frameBytes, frames * frameBytes);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                if (doubles != null)
+                    doubles[s] = segment.asDoubleBuffer();
+                else
+                    floats[s] = segment.asFloatBuffer();
+            }
+        }
+    }
+
+    public boolean isSinglePrecision() {
+        return floats != null;
+    }
+
+    @Override
+    public int getNumFrames() { return numFrames; }
+
+    @Override
+    public int getNumAgents() { return numAgents; }
+
+    @Override
+    public double getX(int frame, int agent) {
+        return get(frame, 2 * agent);
+    }
+
+    @Override
+    public double getY(int frame, int agent) {
+        return get(frame, 2 * agent + 1);
+    }
+
+    // 段内下标不超过 2GB / 值的字节数，用 int 即可
+    private double get(int frame, int k) {
+        final int s = frame / framesPerSegment;
+        final int i = 2 * (frame - s * framesPerSegment) * numAgents + k;
+        return doubles != null ? doubles[s].get(i) : floats[s].get(i);
+    }
+}
@@ -0,0 +1,36 @@
+package utilPac;
+
+import java.util.Arrays;
+
+// 逐行解析空白分隔的数值，SparseMatrix.fromFile 和 TrajectoryFile.fromText 共用。
+// 数值依次追加到 values 的前 size 个位置，容量不足时翻倍
+final class NumberParser {
+    double[] values;
+    int size = 0;
+
+    NumberParser(int capacity) {
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    // 追加 line 中的所有数值，返回本行的个数
+    int parseLine(String line) {
+        final int start = size;
+        final int len = line.length();
+        int i = 0;
+        while (true) {
+            while (i < len && Character.isWhitespace(line.charAt(i)))
+                i++;
+            if (i == len)
+                break;
+            int j = i;
+            while (j < len && !Character.isWhitespace(line.charAt(j)))
+                j++;
+
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = Double.parseDouble(line.substring(i, j));
+            i = j;
+        }
+        return size - start;
+    }
+}
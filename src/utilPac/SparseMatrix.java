@@ -0,0 +1,106 @@
+package utilPac;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// 行为帧、列为行人的稀疏矩阵：每列只保存第一个到最后一个非零值之间的部分，其余为 0，查询为 O(1)
+public class SparseMatrix {
+    private int numRows = 0;
+    private int numCols = 0;
+    private int[] first = new int[0];
+    private int[] length = new int[0];
+    private double[][] cols = new double[0][];
+
+    public int getNumRows() { return numRows; }
+    public int getNumCols() { return numCols; }
+
+    public double get(int row, int col) {
+        if (row < 0 || row >= numRows)
+            throw new IndexOutOfBoundsException("row " + row + " out of range [0, " + numRows + ")");
+        final int i = row - first[col];
+        return i >= 0 && i < length[col] ? cols[col][i] : 0.0;
+    }
+
+    // numRows x numCols 的全零矩阵，不保存任何值
+    public static SparseMatrix zeros(int numRows, int numCols) {
+        final SparseMatrix res = new SparseMatrix();
+        res.numRows = numRows;
+        res.numCols = numCols;
+        res.first = new int[numCols];
+        res.length = new int[numCols];
+        res.cols = new double[numCols][];
+        Arrays.fill(res.cols, new double[0]);
+        return res;
+    }
+
+    // 实际保存的 double 个数
+    public long storedValues() {
+        long n = 0;
+        for (int c = 0; c < numCols; c++)
+            n += length[c];
+        return n;
+    }
+
+    // 逐行追加，不需要先构造稠密矩阵
+    public void addRow(double[] row, int n) {
+        if (numRows == 0) {
+            numCols = n;
+            first = new int[n];
+            Arrays.fill(first, -1);
+            length = new int[n];
+            cols = new double[n][];
+        } else if (n != numCols) {
+            throw new IllegalArgumentException("row " + numRows + ": expected " + numCols + " columns, got " + n);
+        }
+
+        for (int c = 0; c < n; c++) {
+            // -0.0 也按非零保存，保证取到的值逐位相同
+            if (Double.doubleToLongBits(row[c]) == 0L)
+                continue;
+
+            if (first[c] < 0) {
+                first[c] = numRows;
+                cols[c] = new double[4];
+            }
+
+            final int i = numRows - first[c];
+            if (i >= cols[c].length)
+                cols[c] = Arrays.copyOf(cols[c], Math.max(2 * cols[c].length, i + 1));
+            cols[c][i] = row[c];
+            length[c] = i + 1;
+        }
+
+        numRows++;
+    }
+
+    // 去掉增长留下的多余容量
+    public SparseMatrix trim() {
+        for (int c = 0; c < numCols; c++) {
+            if (first[c] < 0)
+                first[c] = 0;
+            cols[c] = cols[c] == null ? new double[0] : Arrays.copyOf(cols[c], length[c]);
+        }
+        return this;
+    }
+
+    // 读取 matFromFile 的文本格式：每行一帧，空白分隔
+    public static SparseMatrix fromFile(String fname) throws IOException {
+        SparseMatrix res = new SparseMatrix();
+        final NumberParser parser = new NumberParser(16);
+
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(fname), Charset.defaultCharset())) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                parser.size = 0;
+                final int n = parser.parseLine(line);
+                res.addRow(parser.values, n);
+            }
+        }
+
+        return res.trim();
+    }
+}
@@ -0,0 +1,74 @@
+package utilPac;
+
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+
+import java.util.List;
+
+// 按行人稀疏存储的轨迹：每个行人只保存位置发生变化的那段帧 [first, first + length)，
+// 之前的帧取第一个值、之后的帧取最后一个值（行人出现前、离开后位置不变），查询为 O(1)
+public class SparseTrajectory implements Trajectory {
+    private final int numFrames, numAgents;
+    private final int[] first;
+    // tracks[a] 为 x0 y0 x1 y1 ...，至少包含一帧
+    private final double[][] tracks;
+
+    public SparseTrajectory(Trajectory dense) {
+        numFrames = dense.getNumFrames();
+        numAgents = dense.getNumAgents();
+        first = new int[numAgents];
+        tracks = new double[numAgents][];
+
+        for (int a = 0; a < numAgents; a++) {
+            int lo = 0;
+            while (lo < numFrames - 1 && same(dense, lo, lo + 1, a))
+                lo++;
+            int hi = numFrames - 1;
+            while (hi > lo && same(dense, hi, hi - 1, a))
+                hi--;
+
+            final double[] track = new double[2 * (hi - lo + 1)];
+            for (int f = lo; f <= hi; f++) {
+                track[2 * (f - lo)] = dense.getX(f, a);
+                track[2 * (f - lo) + 1] = dense.getY(f, a);
+            }
+            first[a] = lo;
+            tracks[a] = track;
+        }
+    }
+
+    public SparseTrajectory(List<List<Vector2D>> pos) {
+        this(new ArrayTrajectory(pos));
+    }
+
+    // 按位比较，保证压缩前后取到的值完全一致
+    private static boolean same(Trajectory t, int f1, int f2, int a) {
+        return Double.doubleToLongBits(t.getX(f1, a)) == Double.doubleToLongBits(t.getX(f2, a))
+                && Double.doubleToLongBits(t.getY(f1, a)) == Double.doubleToLongBits(t.getY(f2, a));
+    }
+
+    // 实际保存的 double 个数
+    public long storedValues() {
+        long n = 0;
+        for (double[] t : tracks)
+            n += t.length;
+        return n;
+    }
+
+    private int index(int frame, int agent) {
+        final int i = frame - first[agent];
+        final int last = tracks[agent].length / 2 - 1;
+        return 2 * (i < 0 ? 0 : i > last ? last : i);
+    }
+
+    @Override
+    public int getNumFrames() { return numFrames; }
+
+    @Override
+    public int getNumAgents() { return numAgents; }
+
+    @Override
+    public double getX(int frame, int agent) { return tracks[agent][index(frame, agent)]; }
+
+    @Override
+    public double getY(int frame, int agent) { return tracks[agent][index(frame, agent) + 1]; }
+}
@@ -0,0 +1,128 @@
+package utilPac;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 结构化并发的作用域：fork 出的子任务的生命周期不超过本作用域。
+// 任一子任务失败时取消其余子任务，join 抛出第一个失败；close 时取消并限时等待所有未完成的子任务。
+// 运行时支持虚拟线程（JDK 21+）时每个子任务一个虚拟线程，否则使用守护平台线程。
+// 用法：try (TaskScope<T> scope = new TaskScope<>()) { scope.fork(...); ...; scope.join(); }
+public class TaskScope<T> implements AutoCloseable {
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+    // 子任务应在被中断后尽快结束（Simulator.doStep 在帧之间检查中断），close 不无限等待
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    private final ExecutorService executor;
+    private final List<Future<T>> futures = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public TaskScope() {
+        executor = newExecutor();
+    }
+
+    public static boolean usesVirtualThreads() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    public Future<T> fork(final Callable<T> task) {
+        if (failure.get() != null)
+            throw new IllegalStateException("scope already failed");
+
+        Future<T> f = executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } catch (Throwable e) {
+                    if (failure.compareAndSet(null, e))
+                        cancelAll();
+                    throw e;
+                }
+            }
+        });
+
+        synchronized (futures) {
+            futures.add(f);
+        }
+        // fork 与失败同时发生时，保证新任务也被取消
+        if (failure.get() != null)
+            f.cancel(true);
+        return f;
+    }
+
+    // 等待所有子任务结束；有子任务失败时抛出第一个失败
+    public void join() throws InterruptedException, ExecutionException {
+        for (Future<T> f : snapshot()) {
+            try {
+                f.get();
+            } catch (CancellationException | ExecutionException e) {
+                // 失败统一在最后抛出
+            }
+        }
+
+        Throwable e = failure.get();
+        if (e != null)
+            throw new ExecutionException(e);
+    }
+
+    // 取消所有未完成的子任务并等待它们结束，最多等待 CLOSE_TIMEOUT_MILLIS，超时仍未结束的线程留在后台（均为守护或虚拟线程）。
+    // 等待时被中断则恢复中断标志后返回
+    @Override
+    public void close() {
+        cancelAll();
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cancelAll() {
+        for (Future<T> f : snapshot())
+            f.cancel(true);
+    }
+
+    private List<Future<T>> snapshot() {
+        synchronized (futures) {
+            return new ArrayList<>(futures);
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (Exception e) {
+                // 退回平台线程
+            }
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "task-scope");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
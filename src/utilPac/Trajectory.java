@@ -0,0 +1,9 @@
+package utilPac;
+
+// 每帧所有行人的真实位置，按 (帧, 行人) 随机访问
+public interface Trajectory {
+    int getNumFrames();
+    int getNumAgents();
+    double getX(int frame, int agent);
+    double getY(int frame, int agent);
+}
@@ -0,0 +1,99 @@
+package utilPac;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// 轨迹的二进制格式（小端）：
+//   0  int    MAGIC
+//   4  int    VERSION
+//   8  int    帧数
+//   12 int    行人数
+//   16 int    每个值的字节数，8 为 float64，4 为 float32
+//   20 ...    补齐到 HEADER_SIZE
+//   之后按帧存放 x0 y0 x1 y1 ...
+// 用法：java utilPac.TrajectoryFile allTruePos.txt allTruePos.bin [float32]
+public class TrajectoryFile {
+    static final int MAGIC = 0x4A415254;    // "TRAJ"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    // 优先映射 dataDir 下的 allTruePos.bin，不存在时解析 allTruePos.txt 并按行人稀疏存储
+    public static Trajectory load(String dataDir) throws IOException {
+        Path bin = Paths.get(dataDir, "allTruePos.bin");
+        if (Files.exists(bin))
+            return map(bin.toString());
+        return new SparseTrajectory(fromText(Paths.get(dataDir, "allTruePos.txt").toString()));
+    }
+
+    public static Trajectory map(String fname) throws IOException {
+        return new MappedTrajectory(Paths.get(fname));
+    }
+
+    // 解析 posFromFile 的文本格式：每行一帧，x y 交替，空白分隔
+    public static ArrayTrajectory fromText(String fname) throws IOException {
+        final NumberParser parser = new NumberParser(1024);
+        int numFrames = 0;
+        int numAgents = -1;
+
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(fname), Charset.defaultCharset())) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                final int values = parser.parseLine(line);
+                if (values % 2 != 0)
+                    throw new IOException(fname + ":" + (numFrames + 1) + ": odd number of values");
+                if (numAgents < 0)
+                    numAgents = values / 2;
+                else if (values != 2 * numAgents)
+                    throw new IOException(fname + ":" + (numFrames + 1) + ": expected " + numAgents + " agents, got " + values / 2);
+                numFrames++;
+            }
+        }
+
+        return new ArrayTrajectory(numFrames, Math.max(numAgents, 0), Arrays.copyOf(parser.values, parser.size));
+    }
+
+    public static void write(String fname, Trajectory traj, boolean singlePrecision) throws IOException {
+        final int numFrames = traj.getNumFrames();
+        final int numAgents = traj.getNumAgents();
+        final int bytesPerValue = singlePrecision ? 4 : 8;
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(fname)), 1 << 16)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(numFrames).putInt(numAgents).putInt(bytesPerValue);
+            out.write(header.array());
+
+            ByteBuffer frame = ByteBuffer.allocate(2 * numAgents * bytesPerValue).order(ByteOrder.LITTLE_ENDIAN);
+            for (int f = 0; f < numFrames; f++) {
+                frame.clear();
+                for (int i = 0; i < numAgents; i++) {
+                    if (singlePrecision) {
+                        frame.putFloat((float) traj.getX(f, i));
+                        frame.putFloat((float) traj.getY(f, i));
+                    } else {
+                        frame.putDouble(traj.getX(f, i));
+                        frame.putDouble(traj.getY(f, i));
+                    }
+                }
+                out.write(frame.array());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: TrajectoryFile <allTruePos.txt> <allTruePos.bin> [float32]");
+            System.exit(1);
+        }
+        boolean singlePrecision = args.length > 2 && args[2].equals("float32");
+        write(args[1], fromText(args[0]), singlePrecision);
+    }
+}